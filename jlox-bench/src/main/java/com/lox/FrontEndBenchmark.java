@@ -0,0 +1,94 @@
+package com.lox;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Scan and scan+parse throughput of a large generated script, through the streaming Scanner
+// and through a TokenBuffer. Each operation covers the whole script, so with the default
+// size of one megabyte the ops/s JMH reports are MB/s of source:
+//
+//   java -jar jlox-bench/target/benchmarks.jar FrontEndBenchmark -p megabytes=16
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+    @Param({"1"})
+    public int megabytes;
+
+    private String source;
+
+    @Setup
+    public void setup() {
+        source = generate(megabytes);
+        new Parser(Scanner.scan(source)).parse();
+        if (Lox.hadError) throw new IllegalStateException("Benchmark source doesn't parse.");
+    }
+
+    @Benchmark
+    public Token scanStream() {
+        return drain(new Scanner(new StringReader(source)));
+    }
+
+    // Only fills the arrays, the Tokens are built as the Parser asks for them.
+    @Benchmark
+    public TokenBuffer scanBuffer() {
+        return Scanner.scan(source);
+    }
+
+    @Benchmark
+    public List<Statement> parseStream() {
+        return new Parser(new Scanner(new StringReader(source))).parse();
+    }
+
+    @Benchmark
+    public List<Statement> parseBuffer() {
+        return new Parser(Scanner.scan(source)).parse();
+    }
+
+    private static Token drain(Scanner tokens) {
+        Token token;
+        do {
+            token = tokens.nextToken();
+        } while (token.type != TokenType.EOF);
+        return token;
+    }
+
+    // Functions mixing the common statement forms, names reused the way real code does.
+    // Stops at the first function past the size, a few hundred bytes over at most.
+    private static String generate(int megabytes) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; source.length() < megabytes * 1024 * 1024; i++) {
+            source.append("// Function number ").append(i).append(".\n")
+                  .append("fun function").append(i).append("(count, step) {\n")
+                  .append("    var total = 0;\n")
+                  .append("    var label = \"function ").append(i).append("\";\n")
+                  .append("    for (var index = 0; index < count; index = index + step) {\n")
+                  .append("        if (index / 2 >= 1.5 and total != nil) {\n")
+                  .append("            total = total + index * ").append(i % 100).append(".25;\n")
+                  .append("        } else {\n")
+                  .append("            total = total - (index + -step);\n")
+                  .append("        }\n")
+                  .append("    }\n")
+                  .append("    /* block comment */\n")
+                  .append("    return total > 0 ? label : nil;\n")
+                  .append("}\n");
+        }
+        return source.toString();
+    }
+}
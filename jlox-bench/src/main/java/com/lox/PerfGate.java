@@ -0,0 +1,183 @@
+package com.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+// Runs each program of the corpus through the whole pipeline, the way Lox runs a script,
+// and compares its wall time, allocation and peak heap with a baseline. Exits with 1 if
+// any regressed by more than the tolerance. Run by the 'perf' profile:
+//
+//   mvn -Pperf verify                        compare with perf-baseline.properties
+//   mvn -Pperf verify -Dperf.update=true     record a new baseline instead
+//   mvn -Pperf verify -Dperf.tolerance=0.1   allow 10% instead of 25%
+//   mvn -Pperf verify -Dperf.time=false      only report wall time, on a busy machine
+//
+// The programs each run for a few hundred milliseconds, so a run is long enough for GC
+// pauses and JIT compilation to even out. Time is the median of the measured runs.
+//
+// Arguments: the baseline file, then the scripts or directories of scripts to run.
+public class PerfGate {
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 9;
+
+    // A slow time is measured again before it counts, in case the machine was busy. Only
+    // the faster median is kept, a real slowdown is slow every time.
+    private static final int TIME_RETRIES = 2;
+
+    // Differences below these are noise, whatever the tolerance says.
+    private static final double TIME_SLACK_MS = 10;
+    private static final double MEMORY_SLACK_MB = 2;
+
+    private static final String[] METRICS = {"time.ms", "alloc.mb", "heap.mb"};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: PerfGate <baseline> <script or directory>...");
+            System.exit(64);
+        }
+        Path baselineFile = Paths.get(args[0]);
+        boolean update = Boolean.getBoolean("perf.update");
+        double tolerance = Double.parseDouble(System.getProperty("perf.tolerance", "0.25"));
+        boolean gateTime = Boolean.parseBoolean(System.getProperty("perf.time", "true"));
+
+        Map<String, Path> programs = new TreeMap<>();
+        for (String arg : Arrays.copyOfRange(args, 1, args.length)) {
+            Path path = Paths.get(arg);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    files.filter(file -> file.toString().endsWith(".lx")).forEach(file -> programs.put(name(file), file));
+                }
+            } else {
+                programs.put(name(path), path);
+            }
+        }
+
+        Properties baseline = new Properties();
+        if (!update) {
+            try (Reader reader = Files.newBufferedReader(baselineFile)) {
+                baseline.load(reader);
+            }
+        }
+
+        Map<String, Double> results = new TreeMap<>();
+        List<String> regressions = new ArrayList<>();
+        System.out.printf("%-12s %10s %10s %10s%n", "program", "time.ms", "alloc.mb", "heap.mb");
+        for (Map.Entry<String, Path> program : programs.entrySet()) {
+            String source = new String(Files.readAllBytes(program.getValue()), StandardCharsets.UTF_8);
+            double[] measured = measure(source);
+            String time = baseline.getProperty(program.getKey() + "." + METRICS[0]);
+            for (int retry = 0; retry < TIME_RETRIES && gateTime && time != null
+                    && regressed(measured[0], Double.parseDouble(time), tolerance, TIME_SLACK_MS); retry++) {
+                measured[0] = Math.min(measured[0], measure(source)[0]);
+            }
+            System.out.printf("%-12s %10.1f %10.1f %10.1f%n", program.getKey(), measured[0], measured[1], measured[2]);
+
+            for (int i = 0; i < METRICS.length; i++) {
+                String key = program.getKey() + "." + METRICS[i];
+                results.put(key, measured[i]);
+                if (update || (i == 0 && !gateTime)) continue;
+
+                String expected = baseline.getProperty(key);
+                if (expected == null) {
+                    regressions.add(key + " has no baseline");
+                    continue;
+                }
+                double slack = i == 0 ? TIME_SLACK_MS : MEMORY_SLACK_MB;
+                if (regressed(measured[i], Double.parseDouble(expected), tolerance, slack)) {
+                    regressions.add(String.format("%s: %.1f, baseline %s", key, measured[i], expected));
+                }
+            }
+        }
+
+        if (update) {
+            StringBuilder text = new StringBuilder("# Written by PerfGate with -Dperf.update=true.\n");
+            for (Map.Entry<String, Double> result : results.entrySet()) {
+                text.append(result.getKey()).append('=').append(String.format("%.1f", result.getValue())).append('\n');
+            }
+            Files.write(baselineFile, text.toString().getBytes(StandardCharsets.UTF_8));
+            System.out.println("Baseline written to " + baselineFile + ".");
+            return;
+        }
+
+        if (!regressions.isEmpty()) {
+            System.out.printf("Regressions beyond %.0f%%:%n", tolerance * 100);
+            for (String regression : regressions) System.out.println("  " + regression);
+            System.exit(1);
+        }
+        System.out.println("No regressions.");
+    }
+
+    private static boolean regressed(double measured, double expected, double tolerance, double slack) {
+        return measured > expected * (1 + tolerance) && measured - expected > slack;
+    }
+
+    private static String name(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".lx") ? name.substring(0, name.length() - 3) : name;
+    }
+
+    // Median wall time, median allocation and highest peak heap of the measured runs.
+    private static double[] measure(String source) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        List<MemoryPoolMXBean> heap = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) heap.add(pool);
+        }
+
+        double[] times = new double[MEASURED_RUNS];
+        double[] allocations = new double[MEASURED_RUNS];
+        double peak = 0;
+        for (int run = -WARMUP_RUNS; run < MEASURED_RUNS; run++) {
+            System.gc();
+            for (MemoryPoolMXBean pool : heap) pool.resetPeakUsage();
+            long allocated = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+
+            run(source);
+
+            long elapsed = System.nanoTime() - start;
+            allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+            if (run < 0) continue;
+
+            long used = 0;
+            for (MemoryPoolMXBean pool : heap) used += pool.getPeakUsage().getUsed();
+            times[run] = elapsed / 1e6;
+            allocations[run] = allocated / (1024.0 * 1024.0);
+            peak = Math.max(peak, used / (1024.0 * 1024.0));
+        }
+        Arrays.sort(times);
+        Arrays.sort(allocations);
+        return new double[] {times[MEASURED_RUNS / 2], allocations[MEASURED_RUNS / 2], peak};
+    }
+
+    // A fresh Interpreter each time, like a new invocation of Lox. The output is discarded.
+    private static void run(String source) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            List<Statement> statements = new Parser(Scanner.scan(source)).parse();
+            if (!Lox.hadError) new Resolver().resolve(statements);
+            if (Lox.hadError) throw new IllegalStateException("Program doesn't compile.");
+            new Interpreter().interpret(statements);
+            if (Lox.hadRuntimeError) throw new IllegalStateException("Program failed at run time.");
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Each stage of the pipeline on its own, over the programs in resources/programs. Every
+// stage starts from the output of the previous one, prepared once per trial:
+//
+//   java -jar jlox-bench/target/benchmarks.jar -rf json -rff results.json
+//
+// The interpret benchmark keeps one Interpreter for the trial, so it measures the warmed
+// up state: specialized nodes, cached global cells and JIT-compiled functions.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({"fib", "loops", "closures", "strings", "concat", "main"})
+    public String program;
+
+    private String source;
+    private TokenBuffer tokens;
+    private List<Statement> statements;
+    private Interpreter interpreter;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws IOException {
+        try (InputStream in = PipelineBenchmark.class.getResourceAsStream("/programs/" + program + ".lx")) {
+            if (in == null) throw new IllegalArgumentException("No program '" + program + "'.");
+            source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        tokens = Scanner.scan(source);
+        statements = new Parser(tokens.from(0)).parse();
+        new Resolver().resolve(statements);
+        if (Lox.hadError) throw new IllegalStateException("'" + program + "' doesn't compile.");
+        interpreter = new Interpreter();
+
+        // The programs print their results, which would only get in the way of JMH's.
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+        if (Lox.hadRuntimeError) throw new IllegalStateException("'" + program + "' failed at run time.");
+    }
+
+    @Benchmark
+    public TokenBuffer scan() {
+        return Scanner.scan(source);
+    }
+
+    // The streaming Scanner that scripts too large for a TokenBuffer go through.
+    @Benchmark
+    public Token scanStreaming() {
+        Scanner scanner = new Scanner(source);
+        Token token;
+        do {
+            token = scanner.nextToken();
+        } while (token.type != TokenType.EOF);
+        return token;
+    }
+
+    @Benchmark
+    public List<Statement> parse() {
+        return new Parser(tokens.from(0)).parse();
+    }
+
+    // Resolving again overwrites the same slots with the same values.
+    @Benchmark
+    public List<Statement> resolve() {
+        new Resolver().resolve(statements);
+        return statements;
+    }
+
+    @Benchmark
+    public void interpret() {
+        interpreter.interpret(statements);
+    }
+}
@@ -0,0 +1,145 @@
+package com.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Resolved ASTs of scripts run before, in a directory of files named by the SHA-256 of
+// the source, the format version and the build. A script found here skips scanning,
+// parsing and resolving. Bump FORMAT whenever the AST, AstWriter or the Resolver's output
+// changes. The build is every class file in the jar or directory jlox runs from, so
+// entries from another build are never used, even if someone forgets.
+class AstCache {
+    private static final String FORMAT = "jlox-ast-2";
+
+    // What the entries depend on, hashed instead when the classes come from somewhere else.
+    private static final Class<?>[] BUILD_CLASSES = {
+        Statement.class, Expression.class, Token.class, TokenType.class, Scanner.class, TokenBuffer.class,
+        Parser.class, Resolver.class, AstWriter.class, AstReader.class,
+    };
+    private static final byte[] BUILD = fingerprint();
+
+    private final Path directory;
+
+    AstCache(Path directory) {
+        this.directory = directory;
+    }
+
+    // The 'jlox.cache' system property, or ~/.cache/jlox.
+    static Path defaultDirectory() {
+        String directory = System.getProperty("jlox.cache");
+        if (directory != null) return Paths.get(directory);
+        return Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+    }
+
+    // A missing, unreadable or malformed entry is a miss; it is rewritten after parsing.
+    List<Statement> load(byte[] source) {
+        Path file = file(source);
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            return new AstReader(Files.readAllBytes(file)).read();
+        } catch (IOException | RuntimeException | StackOverflowError e) {
+            // A corrupt entry can nest deeper than any script would.
+            return null;
+        }
+    }
+
+    // Written to a temporary file first, so concurrent runs never see a partial entry.
+    void store(byte[] source, List<Statement> statements) {
+        try {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, "ast", ".tmp");
+            try {
+                Files.write(temporary, new AstWriter().write(statements));
+                Files.move(temporary, file(source), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            // Running without the cache is fine, it only costs the front end next time.
+        }
+    }
+
+    private Path file(byte[] source) {
+        MessageDigest digest = sha256();
+        digest.update(FORMAT.getBytes(StandardCharsets.UTF_8));
+        digest.update(BUILD);
+        digest.update(source);
+        StringBuilder name = new StringBuilder();
+        for (byte b : digest.digest()) name.append(String.format("%02x", b));
+        return directory.resolve(name.append(".ast").toString());
+    }
+
+    private static byte[] fingerprint() {
+        try {
+            CodeSource code = AstCache.class.getProtectionDomain().getCodeSource();
+            if (code != null) return fingerprint(Paths.get(code.getLocation().toURI()));
+        } catch (URISyntaxException | IOException | RuntimeException e) {
+            // Not a local jar or directory, fall back to the classes the entries depend on.
+        }
+        return fingerprintClasses();
+    }
+
+    // A jar as a whole, or each class file under a directory with its path, in path order.
+    static byte[] fingerprint(Path code) throws IOException {
+        MessageDigest digest = sha256();
+        if (Files.isDirectory(code)) {
+            List<Path> classes;
+            try (Stream<Path> files = Files.walk(code)) {
+                classes = files.filter(file -> file.toString().endsWith(".class")).sorted()
+                        .collect(Collectors.toList());
+            }
+            for (Path file : classes) {
+                digest.update(code.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                digest.update(Files.readAllBytes(file));
+            }
+        } else {
+            digest.update(Files.readAllBytes(code));
+        }
+        return digest.digest();
+    }
+
+    // The BUILD_CLASSES with their nested classes, in name order. A class file that can't be
+    // read, from an unusual class loader, only leaves the key to FORMAT.
+    private static byte[] fingerprintClasses() {
+        MessageDigest digest = sha256();
+        for (Class<?> type : BUILD_CLASSES) {
+            Class<?>[] nested = type.getDeclaredClasses();
+            Arrays.sort(nested, Comparator.comparing(Class::getName));
+            addClassFile(digest, type);
+            for (Class<?> inner : nested) addClassFile(digest, inner);
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void addClassFile(MessageDigest digest, Class<?> type) {
+        String resource = "/" + type.getName().replace('.', '/') + ".class";
+        try (InputStream in = AstCache.class.getResourceAsStream(resource)) {
+            if (in != null) digest.update(in.readAllBytes());
+        } catch (IOException e) {
+            // Left out of the fingerprint.
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads back an AST written by AstWriter, with its resolved slots and captures. Malformed
+// input makes it throw, see AstCache. Every length and size is checked against the input
+// before anything is allocated for it, so a corrupt file can't ask for a huge array.
+class AstReader {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final ByteBuffer in;
+    private final List<Symbol> symbols = new ArrayList<>();
+
+    AstReader(byte[] bytes) {
+        this.in = ByteBuffer.wrap(bytes);
+    }
+
+    List<Statement> read() throws IOException {
+        List<Statement> statements = statements();
+        if (in.hasRemaining()) throw new IOException("Trailing bytes.");
+        return statements;
+    }
+
+    private int u1() {
+        return in.get() & 0xff;
+    }
+
+    private int u4() {
+        return in.getInt();
+    }
+
+    private boolean bool() {
+        return in.get() != 0;
+    }
+
+    // The size of something taking at least one byte per element, which has to fit in what
+    // is left of the input.
+    private int length() throws IOException {
+        int length = u4();
+        if (length < 0 || length > in.remaining()) throw new IOException("Bad length " + length + ".");
+        return length;
+    }
+
+    // Slots are only made for names declared in the input, so there can't be more of them
+    // than bytes in it.
+    private int slotCount() throws IOException {
+        int count = u4();
+        if (count < 0 || count > in.limit()) throw new IOException("Bad slot count " + count + ".");
+        return count;
+    }
+
+    private String string() throws IOException {
+        byte[] encoded = new byte[length()];
+        in.get(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    private Symbol symbol() throws IOException {
+        int index = u4();
+        if (index < symbols.size()) return symbols.get(index);
+        if (index != symbols.size()) throw new IOException("Bad symbol index.");
+        Symbol symbol = Symbol.of(string());
+        symbols.add(symbol);
+        return symbol;
+    }
+
+    private Object value() throws IOException {
+        switch (u1()) {
+            case AstWriter.NIL: return null;
+            case AstWriter.TRUE: return true;
+            case AstWriter.FALSE: return false;
+            case AstWriter.NUMBER: return in.getDouble();
+            case AstWriter.STRING: return string();
+            default: throw new IOException("Bad value tag.");
+        }
+    }
+
+    private Token token() throws IOException {
+        int ordinal = u1();
+        if (ordinal >= TYPES.length) throw new IOException("Bad token type " + ordinal + ".");
+        TokenType type = TYPES[ordinal];
+        int line = u4();
+        if (bool()) return new Token(type, symbol(), line);
+        String lexeme = string();
+        return new Token(type, lexeme, value(), line);
+    }
+
+    private List<Token> tokens() throws IOException {
+        int size = length();
+        List<Token> tokens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) tokens.add(token());
+        return tokens;
+    }
+
+    private List<Statement> statements() throws IOException {
+        int size = length();
+        List<Statement> statements = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) statements.add(statement());
+        return statements;
+    }
+
+    private Statement.Function function() throws IOException {
+        Statement.Function function = new Statement.Function(token(), tokens(), statements());
+        function.slot = u4();
+        function.slotCount = slotCount();
+        int captures = length();
+        function.captureIsLocal = new boolean[captures];
+        function.captureIndexes = new int[captures];
+        for (int i = 0; i < captures; i++) {
+            function.captureIsLocal[i] = bool();
+            function.captureIndexes[i] = u4();
+        }
+        return function;
+    }
+
+    private Expression expression() throws IOException {
+        int tag = u1();
+        switch (tag) {
+            case AstWriter.NULL: return null;
+            case AstWriter.ASSIGN: {
+                Expression.Assign assign = new Expression.Assign(token(), expression());
+                assign.isGlobal = bool();
+                assign.slot = u4();
+                assign.capture = u4();
+                return assign;
+            }
+            case AstWriter.BINARY: return new Expression.Binary(expression(), token(), expression());
+            case AstWriter.TERNARY:
+                return new Expression.Ternary(expression(), token(), expression(), token(), expression());
+            case AstWriter.GROUPING: return new Expression.Grouping(expression());
+            case AstWriter.LITERAL: return new Expression.Literal(value());
+            case AstWriter.UNARY: return new Expression.Unary(token(), expression());
+            case AstWriter.VARIABLE: {
+                Expression.Variable variable = new Expression.Variable(token());
+                variable.isGlobal = bool();
+                variable.slot = u4();
+                variable.capture = u4();
+                return variable;
+            }
+            case AstWriter.LOGICAL: return new Expression.Logical(expression(), token(), expression());
+            case AstWriter.CALL: {
+                Expression callee = expression();
+                Token paren = token();
+                int size = length();
+                List<Expression> arguments = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) arguments.add(expression());
+                Expression.Call call = new Expression.Call(callee, paren, arguments);
+                call.isTailCall = bool();
+                return call;
+            }
+            case AstWriter.FUNCTION_EXPRESSION: return new Expression.Function(function());
+            default: throw new IOException("Bad expression tag " + tag + ".");
+        }
+    }
+
+    private Statement statement() throws IOException {
+        int tag = u1();
+        if (tag == AstWriter.NULL) return null;
+        int line = u4();
+        Statement statement = statement(tag);
+        statement.line = line;
+        return statement;
+    }
+
+    private Statement statement(int tag) throws IOException {
+        switch (tag) {
+            case AstWriter.EXPRESSION_STATEMENT: return new Statement.ExpressionStm(expression());
+            case AstWriter.PRINT: return new Statement.Print(expression());
+            case AstWriter.VAR: {
+                Statement.Var var = new Statement.Var(token(), expression());
+                var.slot = u4();
+                return var;
+            }
+            case AstWriter.BLOCK: {
+                Statement.Block block = new Statement.Block(statements());
+                block.slotCount = slotCount();
+                return block;
+            }
+            case AstWriter.IF: return new Statement.If(expression(), statement(), statement());
+            case AstWriter.WHILE: return new Statement.While(expression(), statement());
+            case AstWriter.BREAK: return new Statement.Break(token());
+            case AstWriter.FUNCTION: return function();
+            case AstWriter.RETURN: return new Statement.Return(token(), expression());
+            default: throw new IOException("Bad statement tag " + tag + ".");
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.lox;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes a resolved AST in the binary form read back by AstReader. Only what the Parser
+// and the Resolver produced is written: the caches the Interpreter and the JIT fill in at
+// run time, like global cells, specialized operations and compiled code, start out empty.
+class AstWriter implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+    // Node tags, shared with AstReader.
+    static final int NULL = 0;
+    static final int ASSIGN = 1;
+    static final int BINARY = 2;
+    static final int TERNARY = 3;
+    static final int GROUPING = 4;
+    static final int LITERAL = 5;
+    static final int UNARY = 6;
+    static final int VARIABLE = 7;
+    static final int LOGICAL = 8;
+    static final int CALL = 9;
+    static final int FUNCTION_EXPRESSION = 10;
+    static final int EXPRESSION_STATEMENT = 11;
+    static final int PRINT = 12;
+    static final int VAR = 13;
+    static final int BLOCK = 14;
+    static final int IF = 15;
+    static final int WHILE = 16;
+    static final int BREAK = 17;
+    static final int FUNCTION = 18;
+    static final int RETURN = 19;
+
+    // Literal value tags.
+    static final int NIL = 0;
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int NUMBER = 3;
+    static final int STRING = 4;
+
+    private byte[] bytes = new byte[4096];
+    private int length = 0;
+    // A symbol is written out once, later uses refer to it by the order it first appeared in.
+    private final Map<Symbol, Integer> symbols = new HashMap<>();
+
+    byte[] write(List<Statement> statements) {
+        statements(statements);
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private void u1(int value) {
+        if (length == bytes.length) bytes = Arrays.copyOf(bytes, length * 2);
+        bytes[length++] = (byte)value;
+    }
+
+    private void u4(int value) {
+        u1(value >> 24);
+        u1(value >> 16);
+        u1(value >> 8);
+        u1(value);
+    }
+
+    private void f8(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        u4((int)(bits >> 32));
+        u4((int)bits);
+    }
+
+    private void bool(boolean value) {
+        u1(value ? 1 : 0);
+    }
+
+    private void string(String value) {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        u4(encoded.length);
+        for (byte b : encoded) u1(b);
+    }
+
+    private void symbol(Symbol symbol) {
+        Integer index = symbols.get(symbol);
+        if (index != null) {
+            u4(index);
+            return;
+        }
+        u4(symbols.size());
+        symbols.put(symbol, symbols.size());
+        string(symbol.name);
+    }
+
+    private void value(Object value) {
+        if (value == null) {
+            u1(NIL);
+        } else if (value instanceof Boolean) {
+            u1((Boolean)value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            u1(NUMBER);
+            f8((Double)value);
+        } else {
+            u1(STRING);
+            string((String)value);
+        }
+    }
+
+    private void token(Token token) {
+        u1(token.type.ordinal());
+        u4(token.line);
+        if (token.symbol != null) {
+            bool(true);
+            symbol(token.symbol);
+        } else {
+            bool(false);
+            string(token.lexeme);
+            value(token.literal);
+        }
+    }
+
+    // Statements follow their tag with the line they start on.
+    private void tag(int tag, Statement statement) {
+        u1(tag);
+        u4(statement.line);
+    }
+
+    private void tokens(List<Token> tokens) {
+        u4(tokens.size());
+        for (Token token : tokens) token(token);
+    }
+
+    private void expression(Expression expression) {
+        if (expression == null) {
+            u1(NULL);
+        } else {
+            expression.accept(this);
+        }
+    }
+
+    private void statement(Statement statement) {
+        if (statement == null) {
+            u1(NULL);
+        } else {
+            statement.accept(this);
+        }
+    }
+
+    private void statements(List<Statement> statements) {
+        u4(statements.size());
+        for (Statement statement : statements) statement(statement);
+    }
+
+    private void function(Statement.Function function) {
+        token(function.name);
+        tokens(function.params);
+        statements(function.body);
+        u4(function.slot);
+        u4(function.slotCount);
+        u4(function.captureIndexes.length);
+        for (int i = 0; i < function.captureIndexes.length; i++) {
+            bool(function.captureIsLocal[i]);
+            u4(function.captureIndexes[i]);
+        }
+    }
+
+    @Override
+    public Void visitAssignExpression(Expression.Assign expression) {
+        u1(ASSIGN);
+        token(expression.name);
+        expression(expression.value);
+        bool(expression.isGlobal);
+        u4(expression.slot);
+        u4(expression.capture);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(Expression.Binary expression) {
+        u1(BINARY);
+        expression(expression.left);
+        token(expression.operator);
+        expression(expression.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpression(Expression.Ternary expression) {
+        u1(TERNARY);
+        expression(expression.left);
+        token(expression.operator1);
+        expression(expression.middle);
+        token(expression.operator2);
+        expression(expression.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(Expression.Grouping expression) {
+        u1(GROUPING);
+        expression(expression.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpression(Expression.Literal expression) {
+        u1(LITERAL);
+        value(expression.value);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpression(Expression.Unary expression) {
+        u1(UNARY);
+        token(expression.operator);
+        expression(expression.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpression(Expression.Variable expression) {
+        u1(VARIABLE);
+        token(expression.name);
+        bool(expression.isGlobal);
+        u4(expression.slot);
+        u4(expression.capture);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpression(Expression.Logical expression) {
+        u1(LOGICAL);
+        expression(expression.left);
+        token(expression.operator);
+        expression(expression.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpression(Expression.Call expression) {
+        u1(CALL);
+        expression(expression.callee);
+        token(expression.paren);
+        u4(expression.arguments.size());
+        for (Expression argument : expression.arguments) expression(argument);
+        bool(expression.isTailCall);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpression(Expression.Function expression) {
+        u1(FUNCTION_EXPRESSION);
+        function(expression.function);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmStatement(Statement.ExpressionStm statement) {
+        tag(EXPRESSION_STATEMENT, statement);
+        expression(statement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.Print statement) {
+        tag(PRINT, statement);
+        expression(statement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStatement(Statement.Var statement) {
+        tag(VAR, statement);
+        token(statement.name);
+        expression(statement.initializer);
+        u4(statement.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStatement(Statement.Block statement) {
+        tag(BLOCK, statement);
+        statements(statement.statements);
+        u4(statement.slotCount);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(Statement.If statement) {
+        tag(IF, statement);
+        expression(statement.condition);
+        statement(statement.thenBranch);
+        statement(statement.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.While statement) {
+        tag(WHILE, statement);
+        expression(statement.condition);
+        statement(statement.body);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStatement(Statement.Break statement) {
+        tag(BREAK, statement);
+        token(statement.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.Function statement) {
+        tag(FUNCTION, statement);
+        function(statement);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.Return statement) {
+        tag(RETURN, statement);
+        token(statement.keyword);
+        expression(statement.value);
+        return null;
+    }
+}
@@ -0,0 +1,284 @@
+package com.lox;
+
+// The behaviour of a Binary node, rewritten in place as the node observes its operand types.
+// Every node starts UNINITIALIZED, picks a specialization on its first execution and falls
+// back to the Generic operation for good once a specialization sees types it can't handle.
+abstract class BinaryOperation {
+    static final BinaryOperation UNINITIALIZED = new Uninitialized();
+
+    abstract Object execute(Expression.Binary node, Object left, Object right);
+
+    Object evaluate(Interpreter interpreter, Expression.Binary node) {
+        // Not through Interpreter.evaluate, one Java frame less for each call in an operand.
+        Object left = node.left.accept(interpreter);
+        Object right = node.right.accept(interpreter);
+        return execute(node, left, right);
+    }
+
+    // Used when the parent consumes a double, throws UnexpectedResult for anything else.
+    double evaluateDouble(Interpreter interpreter, Expression.Binary node) {
+        return expectDouble(evaluate(interpreter, node));
+    }
+
+    static double expectDouble(Object value) {
+        if (value instanceof Double) return (Double)value;
+        throw new UnexpectedResult(value);
+    }
+
+    static BinaryOperation specialize(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case EQUAL_EQUAL: return EQUAL;
+            case BANG_EQUAL: return NOT_EQUAL;
+            case COMMA: return COMMA;
+            default:
+        }
+
+        if (left instanceof Double && right instanceof Double) {
+            switch (operator) {
+                case PLUS: return DOUBLE_ADD;
+                case MINUS: return DOUBLE_SUBTRACT;
+                case STAR: return DOUBLE_MULTIPLY;
+                case SLASH: return DOUBLE_DIVIDE;
+                case LESS: return DOUBLE_LESS;
+                case LESS_EQUAL: return DOUBLE_LESS_EQUAL;
+                case GREATER: return DOUBLE_GREATER;
+                case GREATER_EQUAL: return DOUBLE_GREATER_EQUAL;
+                default:
+            }
+        }
+        if (operator == TokenType.PLUS && left instanceof CharSequence && right instanceof CharSequence) {
+            return STRING_CONCAT;
+        }
+        return GENERIC;
+    }
+
+    // Drops a failed specialization; the node stays generic from now on.
+    static Object deoptimize(Expression.Binary node, Object left, Object right) {
+        node.operation = GENERIC;
+        return GENERIC.execute(node, left, right);
+    }
+
+    // Numeric specializations evaluate their operands through Interpreter.evaluateDouble, so a
+    // tree of them only boxes the final result. If an operand turns out not to be a number the
+    // node deoptimizes and finishes the evaluation with the values computed so far.
+    private abstract static class DoubleArithmetic extends BinaryOperation {
+        abstract double apply(Expression.Binary node, double left, double right);
+
+        @Override
+        Object execute(Expression.Binary node, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return apply(node, (Double)left, (Double)right);
+            return deoptimize(node, left, right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expression.Binary node) {
+            double left;
+            try {
+                left = interpreter.evaluateDouble(node.left);
+            } catch (UnexpectedResult unexpected) {
+                return deoptimize(node, unexpected.value, interpreter.evaluate(node.right));
+            }
+            double right;
+            try {
+                right = interpreter.evaluateDouble(node.right);
+            } catch (UnexpectedResult unexpected) {
+                return deoptimize(node, left, unexpected.value);
+            }
+            return apply(node, left, right);
+        }
+
+        @Override
+        double evaluateDouble(Interpreter interpreter, Expression.Binary node) {
+            double left;
+            try {
+                left = interpreter.evaluateDouble(node.left);
+            } catch (UnexpectedResult unexpected) {
+                return expectDouble(deoptimize(node, unexpected.value, interpreter.evaluate(node.right)));
+            }
+            double right;
+            try {
+                right = interpreter.evaluateDouble(node.right);
+            } catch (UnexpectedResult unexpected) {
+                return expectDouble(deoptimize(node, left, unexpected.value));
+            }
+            return apply(node, left, right);
+        }
+    }
+
+    private abstract static class DoubleComparison extends BinaryOperation {
+        abstract boolean apply(double left, double right);
+
+        @Override
+        Object execute(Expression.Binary node, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return apply((Double)left, (Double)right);
+            return deoptimize(node, left, right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expression.Binary node) {
+            double left;
+            try {
+                left = interpreter.evaluateDouble(node.left);
+            } catch (UnexpectedResult unexpected) {
+                return deoptimize(node, unexpected.value, interpreter.evaluate(node.right));
+            }
+            double right;
+            try {
+                right = interpreter.evaluateDouble(node.right);
+            } catch (UnexpectedResult unexpected) {
+                return deoptimize(node, left, unexpected.value);
+            }
+            return apply(left, right);
+        }
+    }
+
+    private static class Uninitialized extends BinaryOperation {
+        @Override
+        Object execute(Expression.Binary node, Object left, Object right) {
+            BinaryOperation operation = specialize(node.operator.type, left, right);
+            node.operation = operation;
+            return operation.execute(node, left, right);
+        }
+    }
+
+    static final BinaryOperation DOUBLE_ADD = new DoubleArithmetic() {
+        @Override
+        double apply(Expression.Binary node, double left, double right) {
+            return left + right;
+        }
+    };
+
+    static final BinaryOperation DOUBLE_SUBTRACT = new DoubleArithmetic() {
+        @Override
+        double apply(Expression.Binary node, double left, double right) {
+            return left - right;
+        }
+    };
+
+    static final BinaryOperation DOUBLE_MULTIPLY = new DoubleArithmetic() {
+        @Override
+        double apply(Expression.Binary node, double left, double right) {
+            return left * right;
+        }
+    };
+
+    static final BinaryOperation DOUBLE_DIVIDE = new DoubleArithmetic() {
+        @Override
+        double apply(Expression.Binary node, double left, double right) {
+            if (right == 0) throw new RuntimeError(node.operator, "Division by zero detected.");
+            return left / right;
+        }
+    };
+
+    static final BinaryOperation DOUBLE_LESS = new DoubleComparison() {
+        @Override
+        boolean apply(double left, double right) {
+            return left < right;
+        }
+    };
+
+    static final BinaryOperation DOUBLE_LESS_EQUAL = new DoubleComparison() {
+        @Override
+        boolean apply(double left, double right) {
+            return left <= right;
+        }
+    };
+
+    static final BinaryOperation DOUBLE_GREATER = new DoubleComparison() {
+        @Override
+        boolean apply(double left, double right) {
+            return left > right;
+        }
+    };
+
+    static final BinaryOperation DOUBLE_GREATER_EQUAL = new DoubleComparison() {
+        @Override
+        boolean apply(double left, double right) {
+            return left >= right;
+        }
+    };
+
+    static final BinaryOperation STRING_CONCAT = new BinaryOperation() {
+        @Override
+        Object execute(Expression.Binary node, Object left, Object right) {
+            if (left instanceof CharSequence && right instanceof CharSequence) {
+                return Rope.concat((CharSequence)left, (CharSequence)right);
+            }
+            return deoptimize(node, left, right);
+        }
+    };
+
+    // Equality and the comma operator accept any operand types, so they never deoptimize.
+    static final BinaryOperation EQUAL = new BinaryOperation() {
+        @Override
+        Object execute(Expression.Binary node, Object left, Object right) {
+            return Interpreter.isEqual(left, right);
+        }
+    };
+
+    static final BinaryOperation NOT_EQUAL = new BinaryOperation() {
+        @Override
+        Object execute(Expression.Binary node, Object left, Object right) {
+            return !Interpreter.isEqual(left, right);
+        }
+    };
+
+    static final BinaryOperation COMMA = new BinaryOperation() {
+        @Override
+        Object execute(Expression.Binary node, Object left, Object right) {
+            return right;
+        }
+    };
+
+    static final BinaryOperation GENERIC = new BinaryOperation() {
+        @Override
+        Object execute(Expression.Binary node, Object left, Object right) {
+            Token operator = node.operator;
+            switch(operator.type) {
+                case MINUS:
+                    Interpreter.checkNumberOperands(operator, left, right);
+                    return (Double)left - (Double)right;
+                case STAR:
+                    Interpreter.checkNumberOperands(operator, left, right);
+                    return (Double)left * (Double)right;
+                case SLASH:
+                    Interpreter.checkNumberOperands(operator, left, right);
+                    if ((Double)right == 0) throw new RuntimeError(operator, "Division by zero detected.");
+                    return (Double)left / (Double)right;
+                case PLUS:
+                    if (left instanceof Double && right instanceof Double) {
+                        return (Double)left + (Double)right;
+                    }
+                    if (left instanceof CharSequence || right instanceof CharSequence) {
+                        return Rope.concat(Rope.text(left), Rope.text(right));
+                    }
+                    throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+
+                case LESS:
+                    Interpreter.checkNumberOperands(operator, left, right);
+                    return (Double)left < (Double)right;
+                case LESS_EQUAL:
+                    Interpreter.checkNumberOperands(operator, left, right);
+                    return (Double)left <= (Double)right;
+                case GREATER:
+                    Interpreter.checkNumberOperands(operator, left, right);
+                    return (Double)left > (Double)right;
+                case GREATER_EQUAL:
+                    Interpreter.checkNumberOperands(operator, left, right);
+                    return (Double)left >= (Double)right;
+
+                case EQUAL_EQUAL:
+                    return Interpreter.isEqual(left, right);
+                case BANG_EQUAL:
+                    return !Interpreter.isEqual(left, right);
+
+                case COMMA:
+                    return right;
+
+                default:
+            }
+
+            return null;
+        }
+    };
+}
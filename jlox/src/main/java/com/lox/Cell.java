@@ -0,0 +1,11 @@
+package com.lox;
+
+// A variable's value in a box of its own, so the places that use the variable
+// can hold on to the box instead of looking the variable up each time.
+class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
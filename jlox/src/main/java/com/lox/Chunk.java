@@ -0,0 +1,64 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Chunk {
+    byte[] code = new byte[16];
+    int count = 0;
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    Object[] constants;
+
+    // Run-length encoded line table: lines[i] applies from offset starts[i] onwards.
+    private int[] starts = new int[4];
+    private int[] lines = new int[4];
+    private int runs = 0;
+
+    void write(byte value, int line) {
+        if (count == code.length) code = Arrays.copyOf(code, count * 2);
+        if (runs == 0 || lines[runs - 1] != line) {
+            if (runs == starts.length) {
+                starts = Arrays.copyOf(starts, runs * 2);
+                lines = Arrays.copyOf(lines, runs * 2);
+            }
+            starts[runs] = count;
+            lines[runs] = line;
+            runs++;
+        }
+        code[count++] = value;
+    }
+
+    int addConstant(Object value) {
+        // Only immutable values are shared, every function constant gets its own entry.
+        boolean shareable = value instanceof Double || value instanceof String;
+        if (shareable) {
+            Integer existing = constantIndex.get(value);
+            if (existing != null) return existing;
+        }
+        constantList.add(value);
+        int index = constantList.size() - 1;
+        if (shareable) constantIndex.put(value, index);
+        return index;
+    }
+
+    int constantCount() {
+        return constantList.size();
+    }
+
+    int getLine(int offset) {
+        int line = 0;
+        for (int i = 0; i < runs && starts[i] <= offset; i++) {
+            line = lines[i];
+        }
+        return line;
+    }
+
+    void trim() {
+        code = Arrays.copyOf(code, count);
+        constants = constantList.toArray();
+    }
+}
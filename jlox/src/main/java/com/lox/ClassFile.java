@@ -0,0 +1,319 @@
+package com.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of a JVM classfile writer for JitCompiler. Classes are written as
+// version 49 (Java 5) so the JVM verifies them by type inference and no stack map
+// frames have to be computed.
+public class ClassFile {
+    static final int VERSION = 49;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // Opcodes used by the JIT.
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int ALOAD = 0x19;
+    static final int ASTORE = 0x3a;
+    static final int AALOAD = 0x32;
+    static final int AASTORE = 0x53;
+    static final int IXOR = 0x82;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int GETFIELD = 0xb4;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+    static final int WIDE = 0xc4;
+
+    // Raised when a method outgrows what this writer can encode.
+    static class TooLargeException extends RuntimeException {
+        TooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final List<byte[]> methods = new ArrayList<>();
+    private final int codeName;
+
+    ClassFile(String name, String superName) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+        codeName = utf8("Code");
+    }
+
+    // Constant pool:
+    private int add(String key, byte[] entry, int slots) {
+        Integer existing = poolIndex.get(key);
+        if (existing != null) return existing;
+        if (poolCount + slots > 0xffff) throw new TooLargeException("Constant pool overflow.");
+        poolBytes.write(entry, 0, entry.length);
+        int index = poolCount;
+        poolCount += slots;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    private static byte[] bytes(int tag, Object... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        try {
+            data.writeByte(tag);
+            for (Object part : parts) {
+                if (part instanceof Integer) {
+                    data.writeShort((Integer)part);
+                } else if (part instanceof String) {
+                    data.writeUTF((String)part);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    int utf8(String value) {
+        return add("U" + value, bytes(1, value), 1);
+    }
+
+    int classRef(String internalName) {
+        return add("C" + internalName, bytes(7, utf8(internalName)), 1);
+    }
+
+    int string(String value) {
+        return add("S" + value, bytes(8, utf8(value)), 1);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return add("N" + name + ":" + descriptor, bytes(12, utf8(name), utf8(descriptor)), 1);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return add("F" + owner + "." + name + ":" + descriptor,
+                bytes(9, classRef(owner), nameAndType(name, descriptor)), 1);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return add("M" + owner + "." + name + ":" + descriptor,
+                bytes(10, classRef(owner), nameAndType(name, descriptor)), 1);
+    }
+
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return add("I" + owner + "." + name + ":" + descriptor,
+                bytes(11, classRef(owner), nameAndType(name, descriptor)), 1);
+    }
+
+    Code method(int access, String name, String descriptor, int argumentSlots) {
+        return new Code(access, utf8(name), utf8(descriptor), argumentSlots);
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        try {
+            data.writeInt(0xCAFEBABE);
+            data.writeShort(0);
+            data.writeShort(VERSION);
+            data.writeShort(poolCount);
+            data.write(poolBytes.toByteArray());
+            data.writeShort(ACC_FINAL | ACC_SUPER);
+            data.writeShort(thisClass);
+            data.writeShort(superClass);
+            data.writeShort(0); // interfaces
+            data.writeShort(0); // fields
+            data.writeShort(methods.size());
+            for (byte[] method : methods) {
+                data.write(method);
+            }
+            data.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    static class Label {
+        int offset = -1;
+        final List<Integer> references = new ArrayList<>();
+    }
+
+    // Bytecode of a single method. Tracks the operand stack depth so max_stack
+    // can be written without a separate analysis pass.
+    class Code {
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private byte[] code = new byte[64];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+
+        private Code(int access, int name, int descriptor, int argumentSlots) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = argumentSlots;
+        }
+
+        private void u1(int value) {
+            if (length == code.length) code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte)value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            if (stack > maxStack) maxStack = stack;
+        }
+
+        int stackDepth() {
+            return stack;
+        }
+
+        void op(int opcode, int stackDelta) {
+            u1(opcode);
+            adjust(stackDelta);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH, 1);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH, 1);
+                u2(value);
+            } else {
+                throw new TooLargeException("Integer operand out of range.");
+            }
+        }
+
+        void ldc(int constant) {
+            if (constant <= 0xff) {
+                op(LDC, 1);
+                u1(constant);
+            } else {
+                op(LDC_W, 1);
+                u2(constant);
+            }
+        }
+
+        void local(int opcode, int index) {
+            if (index + 1 > maxLocals) maxLocals = index + 1;
+            int delta = opcode == ALOAD ? 1 : -1;
+            if (index <= 0xff) {
+                op(opcode, delta);
+                u1(index);
+            } else {
+                op(WIDE, 0);
+                op(opcode, delta);
+                u2(index);
+            }
+        }
+
+        // Field access, type instructions and invokes that take a constant pool index.
+        void indexed(int opcode, int index, int stackDelta) {
+            op(opcode, stackDelta);
+            u2(index);
+        }
+
+        void invokeInterface(int index, int argumentCount, int stackDelta) {
+            op(INVOKEINTERFACE, stackDelta);
+            u2(index);
+            u1(argumentCount + 1);
+            u1(0);
+        }
+
+        void jump(int opcode, Label target) {
+            int at = length;
+            op(opcode, opcode == GOTO ? 0 : -1);
+            if (target.offset >= 0) {
+                branchOffset(target.offset - at);
+                u2(target.offset - at);
+            } else {
+                target.references.add(at);
+                u2(0);
+            }
+        }
+
+        void mark(Label label) {
+            label.offset = length;
+            for (int at : label.references) {
+                int offset = label.offset - at;
+                branchOffset(offset);
+                code[at + 1] = (byte)(offset >> 8);
+                code[at + 2] = (byte)offset;
+            }
+            label.references.clear();
+        }
+
+        // Stack depth after an unconditional jump or return, used to resume
+        // tracking at a label reached only by jumps.
+        void setStackDepth(int depth) {
+            stack = depth;
+        }
+
+        private void branchOffset(int offset) {
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                throw new TooLargeException("Branch offset out of range.");
+            }
+        }
+
+        void end() {
+            if (length > 0xffff) throw new TooLargeException("Method too large.");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(out);
+            try {
+                data.writeShort(access);
+                data.writeShort(name);
+                data.writeShort(descriptor);
+                data.writeShort(1);
+                data.writeShort(codeName);
+                data.writeInt(12 + length);
+                data.writeShort(maxStack);
+                data.writeShort(maxLocals);
+                data.writeInt(length);
+                data.write(code, 0, length);
+                data.writeShort(0); // exception table
+                data.writeShort(0); // attributes
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            methods.add(out.toByteArray());
+        }
+    }
+}
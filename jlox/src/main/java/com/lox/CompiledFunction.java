@@ -0,0 +1,143 @@
+package com.lox;
+
+import java.util.Arrays;
+
+// Base class of the classes JitCompiler generates for hot functions. The generated
+// code keeps locals in JVM locals and calls the static helpers below for everything
+// with Lox semantics, so HotSpot can inline them into the compiled function.
+abstract class CompiledFunction {
+    // Tokens and nodes the generated code hands to the helpers for error reporting.
+    final Object[] constants;
+
+    CompiledFunction(Object[] constants) {
+        this.constants = constants;
+    }
+
+    // The arguments come in the parameter slots of the frame LoxFunction allocated.
+    abstract Object invoke(Interpreter interpreter, Cell[] captures, Object[] frame);
+
+    static Object getGlobal(Interpreter interpreter, Expression.Variable node) {
+        return interpreter.getGlobal(node);
+    }
+
+    static void setGlobal(Object value, Interpreter interpreter, Expression.Assign node) {
+        interpreter.setGlobal(node, value);
+    }
+
+    static Object getCapture(Cell[] captures, int index) {
+        return captures[index].value;
+    }
+
+    static void setCapture(Object value, Cell[] captures, int index) {
+        captures[index].value = value;
+    }
+
+    static void countStatement(Interpreter interpreter) {
+        if (interpreter.stats != null) interpreter.countStatement();
+    }
+
+    static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+
+    static boolean isTrue(Object value) {
+        return Interpreter.isTrue(value);
+    }
+
+    // Fast paths for the specializations the Binary and Unary nodes had settled on when the
+    // function was compiled. Any other operand types take the node's own path, which also
+    // reports the runtime errors.
+    static Object add(Object left, Object right, Expression.Binary node) {
+        if (left instanceof Double && right instanceof Double) return (Double)left + (Double)right;
+        return node.operation.execute(node, left, right);
+    }
+
+    static Object subtract(Object left, Object right, Expression.Binary node) {
+        if (left instanceof Double && right instanceof Double) return (Double)left - (Double)right;
+        return node.operation.execute(node, left, right);
+    }
+
+    static Object multiply(Object left, Object right, Expression.Binary node) {
+        if (left instanceof Double && right instanceof Double) return (Double)left * (Double)right;
+        return node.operation.execute(node, left, right);
+    }
+
+    static Object divide(Object left, Object right, Expression.Binary node) {
+        if (left instanceof Double && right instanceof Double && (Double)right != 0) {
+            return (Double)left / (Double)right;
+        }
+        return node.operation.execute(node, left, right);
+    }
+
+    static Object concat(Object left, Object right, Expression.Binary node) {
+        if (left instanceof CharSequence && right instanceof CharSequence) {
+            return Rope.concat((CharSequence)left, (CharSequence)right);
+        }
+        return node.operation.execute(node, left, right);
+    }
+
+    static boolean less(Object left, Object right, Expression.Binary node) {
+        if (left instanceof Double && right instanceof Double) return (Double)left < (Double)right;
+        return Interpreter.isTrue(node.operation.execute(node, left, right));
+    }
+
+    static boolean lessEqual(Object left, Object right, Expression.Binary node) {
+        if (left instanceof Double && right instanceof Double) return (Double)left <= (Double)right;
+        return Interpreter.isTrue(node.operation.execute(node, left, right));
+    }
+
+    static boolean greater(Object left, Object right, Expression.Binary node) {
+        if (left instanceof Double && right instanceof Double) return (Double)left > (Double)right;
+        return Interpreter.isTrue(node.operation.execute(node, left, right));
+    }
+
+    static boolean greaterEqual(Object left, Object right, Expression.Binary node) {
+        if (left instanceof Double && right instanceof Double) return (Double)left >= (Double)right;
+        return Interpreter.isTrue(node.operation.execute(node, left, right));
+    }
+
+    static boolean isEqual(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Object binary(Object left, Object right, Expression.Binary node) {
+        return node.operation.execute(node, left, right);
+    }
+
+    static Object negate(Object right, Expression.Unary node) {
+        if (right instanceof Double) return -(Double)right;
+        return node.operation.execute(node, right);
+    }
+
+    static Object unary(Object right, Expression.Unary node) {
+        return node.operation.execute(node, right);
+    }
+
+    static Object call(Interpreter interpreter, Object callee, Token paren) {
+        return Interpreter.callable(callee, 0, paren).call0(interpreter);
+    }
+
+    static Object call(Interpreter interpreter, Object callee, Object a, Token paren) {
+        return Interpreter.callable(callee, 1, paren).call1(interpreter, a);
+    }
+
+    static Object call(Interpreter interpreter, Object callee, Object a, Object b, Token paren) {
+        return Interpreter.callable(callee, 2, paren).call2(interpreter, a, b);
+    }
+
+    static Object call(Interpreter interpreter, Object callee, Object a, Object b, Object c, Token paren) {
+        return Interpreter.callable(callee, 3, paren).call3(interpreter, a, b, c);
+    }
+
+    static Object call(Interpreter interpreter, Object callee, Object a, Object b, Object c, Object d, Token paren) {
+        return Interpreter.callable(callee, 4, paren).call4(interpreter, a, b, c, d);
+    }
+
+    static Object call(Interpreter interpreter, Object callee, Object[] arguments, Token paren) {
+        return Interpreter.callable(callee, arguments.length, paren).call(interpreter, Arrays.asList(arguments));
+    }
+
+    static Object tailCall(Interpreter interpreter, Object callee, Object[] arguments, Token paren) {
+        return interpreter.tailCall(callee, arguments, paren);
+    }
+}
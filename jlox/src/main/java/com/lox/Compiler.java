@@ -0,0 +1,512 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Lowers a resolved syntax tree into bytecode for the VM. Static errors are
+// reported by the Resolver beforehand, so this pass assumes a valid program.
+public class Compiler implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int MAX_CONSTANTS = 65536;
+    private static final int MAX_JUMP = 65535;
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final int scopeDepth;
+        final List<Integer> breakJumps = new ArrayList<>();
+
+        Loop(Loop enclosing, int scopeDepth) {
+            this.enclosing = enclosing;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VmFunction function;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        Loop loop = null;
+
+        FunctionState(FunctionState enclosing, VmFunction function) {
+            this.enclosing = enclosing;
+            this.function = function;
+            // Slot zero holds the callee itself.
+            locals.add(new Local("", 0));
+        }
+    }
+
+    private static class CompileError extends RuntimeException {
+        CompileError(String message) {
+            super(message);
+        }
+    }
+
+    private FunctionState current = null;
+    private int line = 0;
+
+    public VmFunction compile(List<Statement> statements) {
+        current = new FunctionState(null, new VmFunction(null));
+        try {
+            for (Statement statement : statements) {
+                compile(statement);
+            }
+        } catch (CompileError err) {
+            Lox.error(line, err.getMessage());
+            return null;
+        }
+        emitReturn();
+        return endFunction();
+    }
+
+    private void compile(Statement statement) {
+        statement.accept(this);
+    }
+
+    private void compile(Expression expression) {
+        expression.accept(this);
+    }
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    private VmFunction endFunction() {
+        VmFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.trim();
+        current = current.enclosing;
+        return function;
+    }
+
+    // Emitting bytecode:
+    private void emitByte(byte value) {
+        chunk().write(value, line);
+    }
+
+    private void emitBytes(byte first, byte second) {
+        emitByte(first);
+        emitByte(second);
+    }
+
+    private void emitShort(int value) {
+        emitByte((byte)((value >> 8) & 0xff));
+        emitByte((byte)(value & 0xff));
+    }
+
+    private void emitReturn() {
+        emitByte(OpCode.NIL);
+        emitByte(OpCode.RETURN);
+    }
+
+    private int makeConstant(Object value) {
+        int index = chunk().addConstant(value);
+        if (index >= MAX_CONSTANTS) throw new CompileError("Too many constants in one chunk.");
+        return index;
+    }
+
+    private void emitConstant(Object value) {
+        emitByte(OpCode.CONSTANT);
+        emitShort(makeConstant(value));
+    }
+
+    private int emitJump(byte instruction) {
+        emitByte(instruction);
+        emitShort(0xffff);
+        return chunk().count - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk().count - offset - 2;
+        if (jump > MAX_JUMP) throw new CompileError("Too much code to jump over.");
+        chunk().code[offset] = (byte)((jump >> 8) & 0xff);
+        chunk().code[offset + 1] = (byte)(jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emitByte(OpCode.LOOP);
+        int offset = chunk().count - loopStart + 2;
+        if (offset > MAX_JUMP) throw new CompileError("Loop body too large.");
+        emitShort(offset);
+    }
+
+    // Scopes and variables:
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            emitByte(locals.get(locals.size() - 1).isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private void addLocal(Token name) {
+        if (current.locals.size() == MAX_LOCALS) throw new CompileError("Too many local variables in function.");
+        current.locals.add(new Local(name.lexeme, current.scopeDepth));
+    }
+
+    private boolean isGlobalScope() {
+        return current.enclosing == null && current.scopeDepth == 0;
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private static int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+        if (state.upvalues.size() == MAX_UPVALUES) throw new CompileError("Too many closure variables in function.");
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private static int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) return addUpvalue(state, upvalue, false);
+
+        return -1;
+    }
+
+    private void namedVariable(Token name, boolean assign) {
+        line = name.line;
+        byte getOp;
+        byte setOp;
+        int arg = resolveLocal(current, name.lexeme);
+        if (arg != -1) {
+            getOp = OpCode.GET_LOCAL;
+            setOp = OpCode.SET_LOCAL;
+        } else if ((arg = resolveUpvalue(current, name.lexeme)) != -1) {
+            getOp = OpCode.GET_UPVALUE;
+            setOp = OpCode.SET_UPVALUE;
+        } else {
+            emitByte(assign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL);
+            emitShort(makeConstant(name.lexeme));
+            return;
+        }
+        emitBytes(assign ? setOp : getOp, (byte)arg);
+    }
+
+    private void defineVariable(Token name) {
+        if (isGlobalScope()) {
+            line = name.line;
+            emitByte(OpCode.DEFINE_GLOBAL);
+            emitShort(makeConstant(name.lexeme));
+        } else {
+            addLocal(name);
+        }
+    }
+
+    private void function(Statement.Function declaration) {
+        current = new FunctionState(current, new VmFunction(declaration.name.lexeme));
+        current.function.arity = declaration.params.size();
+        beginScope();
+        for (Token param : declaration.params) {
+            addLocal(param);
+        }
+        for (Statement statement : declaration.body) {
+            compile(statement);
+        }
+        emitReturn();
+
+        List<Upvalue> upvalues = current.upvalues;
+        VmFunction function = endFunction();
+
+        line = declaration.name.line;
+        emitByte(OpCode.CLOSURE);
+        emitShort(makeConstant(function));
+        for (Upvalue upvalue : upvalues) {
+            emitByte(upvalue.isLocal ? (byte)1 : (byte)0);
+            emitByte((byte)upvalue.index);
+        }
+    }
+
+    // Compile statements:
+    @Override
+    public Void visitExpressionStmStatement(Statement.ExpressionStm statement) {
+        compile(statement.expression);
+        emitByte(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.Print statement) {
+        compile(statement.expression);
+        emitByte(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStatement(Statement.Var statement) {
+        // As in the Resolver, a local is in scope in its own initializer, where functions can
+        // capture it. Its slot is the one the initializer's value is pushed to.
+        boolean local = !isGlobalScope();
+        if (local) addLocal(statement.name);
+        if (statement.initializer != null) {
+            compile(statement.initializer);
+        } else {
+            emitByte(OpCode.NIL);
+        }
+        if (!local) defineVariable(statement.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStatement(Statement.Block statement) {
+        beginScope();
+        for (Statement inner : statement.statements) {
+            compile(inner);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(Statement.If statement) {
+        compile(statement.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        compile(statement.thenBranch);
+
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emitByte(OpCode.POP);
+        if (statement.elseBranch != null) compile(statement.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.While statement) {
+        Loop loop = new Loop(current.loop, current.scopeDepth);
+        current.loop = loop;
+
+        int loopStart = chunk().count;
+        compile(statement.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        compile(statement.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emitByte(OpCode.POP);
+
+        // A break has already discarded the condition, so it lands after the POP.
+        for (int breakJump : loop.breakJumps) {
+            patchJump(breakJump);
+        }
+        current.loop = loop.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStatement(Statement.Break statement) {
+        line = statement.keyword.line;
+        Loop loop = current.loop;
+        if (loop == null) throw new CompileError("Break must be inside loop.");
+        // Discard the locals declared inside the loop body without forgetting them,
+        // the code after the break statement still sees them.
+        for (int i = current.locals.size() - 1; i >= 0 && current.locals.get(i).depth > loop.scopeDepth; i--) {
+            emitByte(current.locals.get(i).isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+        loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.Function statement) {
+        // Declare local functions before compiling the body so they can call themselves.
+        if (!isGlobalScope()) addLocal(statement.name);
+        function(statement);
+        if (isGlobalScope()) defineVariable(statement.name);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.Return statement) {
+        line = statement.keyword.line;
+        if (statement.value instanceof Expression.Call && ((Expression.Call)statement.value).isTailCall) {
+            Expression.Call call = (Expression.Call)statement.value;
+            compile(call.callee);
+            for (Expression argument : call.arguments) {
+                compile(argument);
+            }
+            line = call.paren.line;
+            emitBytes(OpCode.TAIL_CALL, (byte)call.arguments.size());
+        } else if (statement.value == null) {
+            emitByte(OpCode.NIL);
+        } else {
+            compile(statement.value);
+        }
+        emitByte(OpCode.RETURN);
+        return null;
+    }
+
+    // Compile expressions:
+    @Override
+    public Void visitAssignExpression(Expression.Assign expression) {
+        compile(expression.value);
+        namedVariable(expression.name, true);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(Expression.Binary expression) {
+        compile(expression.left);
+        if (expression.operator.type == TokenType.COMMA) {
+            emitByte(OpCode.POP);
+            compile(expression.right);
+            return null;
+        }
+        compile(expression.right);
+
+        line = expression.operator.line;
+        switch (expression.operator.type) {
+            case MINUS: emitByte(OpCode.SUBTRACT); break;
+            case STAR: emitByte(OpCode.MULTIPLY); break;
+            case SLASH: emitByte(OpCode.DIVIDE); break;
+            case PLUS: emitByte(OpCode.ADD); break;
+            case LESS: emitByte(OpCode.LESS); break;
+            case LESS_EQUAL: emitByte(OpCode.LESS_EQUAL); break;
+            case GREATER: emitByte(OpCode.GREATER); break;
+            case GREATER_EQUAL: emitByte(OpCode.GREATER_EQUAL); break;
+            case EQUAL_EQUAL: emitByte(OpCode.EQUAL); break;
+            case BANG_EQUAL: emitByte(OpCode.NOT_EQUAL); break;
+            default:
+                // Matches the tree-walker, which yields nil for unknown operators.
+                emitBytes(OpCode.POP, OpCode.POP);
+                emitByte(OpCode.NIL);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpression(Expression.Ternary expression) {
+        compile(expression.left);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        compile(expression.middle);
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        emitByte(OpCode.POP);
+        compile(expression.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(Expression.Grouping expression) {
+        compile(expression.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpression(Expression.Literal expression) {
+        if (expression.value == null) {
+            emitByte(OpCode.NIL);
+        } else if (expression.value == Boolean.TRUE) {
+            emitByte(OpCode.TRUE);
+        } else if (expression.value == Boolean.FALSE) {
+            emitByte(OpCode.FALSE);
+        } else {
+            emitConstant(expression.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpression(Expression.Unary expression) {
+        compile(expression.right);
+        line = expression.operator.line;
+        switch (expression.operator.type) {
+            case MINUS: emitByte(OpCode.NEGATE); break;
+            case BANG: emitByte(OpCode.NOT); break;
+            default:
+                emitByte(OpCode.POP);
+                emitByte(OpCode.NIL);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpression(Expression.Variable expression) {
+        namedVariable(expression.name, false);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpression(Expression.Logical expression) {
+        compile(expression.left);
+        if (expression.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emitByte(OpCode.POP);
+            compile(expression.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emitByte(OpCode.POP);
+            compile(expression.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpression(Expression.Call expression) {
+        compile(expression.callee);
+        for (Expression argument : expression.arguments) {
+            compile(argument);
+        }
+        line = expression.paren.line;
+        emitBytes(OpCode.CALL, (byte)expression.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpression(Expression.Function expression) {
+        function(expression.function);
+        return null;
+    }
+}
@@ -0,0 +1,9 @@
+package com.lox;
+
+// How a statement finished executing. The value of a return is left in
+// Interpreter.returnValue, so completing a statement never allocates.
+enum Completion {
+    NORMAL,
+    BREAK,
+    RETURN
+}
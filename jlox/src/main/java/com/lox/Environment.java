@@ -1,57 +1,88 @@
 package com.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class Environment {
-    public final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // Locals live in slots assigned by the Resolver, only the global environment is keyed by name.
+    // A function's frame holds the locals of all its blocks, so frames never need to be chained.
+    // A slot holds a Cell once a closure has captured the variable in it.
+    final Object[] slots;
+    // Variables of enclosing functions captured by the function this frame belongs to.
+    Cell[] captures;
+    // Global cells, indexed by Symbol id. They are never replaced, redefining a global
+    // stores into its existing cell.
+    private GlobalCell[] values;
 
     Environment() {
-        enclosing = null;
+        slots = null;
+        captures = null;
+        values = new GlobalCell[256];
     }
 
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
+    // The frame of a function call or of a block in top-level code.
+    Environment(int size) {
+        this.slots = new Object[size];
+        this.captures = null;
+        this.values = null;
     }
 
-    public void define(String name, Object value) {
-        values.put(name, value);
+    public void define(Symbol name, Object value) {
+        if (name.id >= values.length) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, name.id + 1));
+        }
+        GlobalCell cell = values[name.id];
+        if (cell == null) {
+            values[name.id] = new GlobalCell(this, value);
+        } else {
+            cell.value = value;
+        }
     }
 
-    public Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme); 
+    public void define(int slot, Object value) {
+        if (slots[slot] instanceof Cell) {
+            // Captured by a closure, possibly one created by the declaration itself.
+            ((Cell)slots[slot]).value = value;
+        } else {
+            slots[slot] = value;
         }
+    }
+
+    public Object get(Token name) {
+        return cell(name).value;
+    }
 
-        if (enclosing != null) return enclosing.get(name);
+    GlobalCell cell(Token name) {
+        int id = name.symbol.id;
+        if (id < values.length && values[id] != null) return values[id];
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    public Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    public Object get(int slot) {
+        Object value = slots[slot];
+        if (value instanceof Cell) return ((Cell)value).value;
+        return value;
     }
 
-    public Environment ancestor(int distance) {
-        Environment environment = this;
-        for (int i = 0; i < distance; i++) {
-            environment = environment.enclosing;
-        }
-        return environment;
+    // Moves the variable into a cell, if it isn't in one yet, so a closure can share it.
+    Cell capture(int slot) {
+        if (slots[slot] instanceof Cell) return (Cell)slots[slot];
+        Cell cell = new Cell(slots[slot]);
+        slots[slot] = cell;
+        return cell;
+    }
+
+    // A declaration starts a new variable in its slot. The slot may still hold the cell of an
+    // earlier variable, from a previous loop iteration or a sibling block, that a closure kept.
+    void clear(int slot) {
+        slots[slot] = null;
     }
 
     public void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-        } else if (enclosing != null) {
-            enclosing.assign(name, value);
-        } else {
-            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
-        }
+        cell(name).value = value;
     }
 
-    public void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    public void assign(int slot, Object value) {
+        define(slot, value);
     }
 }
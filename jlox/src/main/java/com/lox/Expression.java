@@ -19,6 +19,10 @@ abstract class Expression {
 	static class Assign extends Expression {
 		final Token name;
 		final Expression value;
+		boolean isGlobal = true;
+		int slot = -1;
+		int capture = -1;
+		GlobalCell cell = null;
 
 		Assign(Token name, Expression value) {
 			this.name = name;
@@ -34,6 +38,7 @@ abstract class Expression {
 		final Expression left;
 		final Token operator;
 		final Expression right;
+		BinaryOperation operation = BinaryOperation.UNINITIALIZED;
 
 		Binary(Expression left, Token operator, Expression right) {
 			this.left = left;
@@ -93,6 +98,7 @@ abstract class Expression {
 	static class Unary extends Expression {
 		final Token operator;
 		final Expression right;
+		UnaryOperation operation = UnaryOperation.UNINITIALIZED;
 
 		Unary(Token operator, Expression right) {
 			this.operator = operator;
@@ -106,6 +112,10 @@ abstract class Expression {
 	}
 	static class Variable extends Expression {
 		final Token name;
+		boolean isGlobal = true;
+		int slot = -1;
+		int capture = -1;
+		GlobalCell cell = null;
 
 		Variable(Token name) {
 			this.name = name;
@@ -136,6 +146,7 @@ abstract class Expression {
 		final Expression callee;
 		final Token paren;
 		final List<Expression> arguments;
+		boolean isTailCall = false;
 
 		Call(Expression callee, Token paren, List<Expression> arguments) {
 			this.callee = callee;
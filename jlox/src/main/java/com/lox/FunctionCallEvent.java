@@ -0,0 +1,43 @@
+package com.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// A call of a Lox function that took longer than the threshold, tail calls included. Like
+// the other Lox events it is off by default, a recording has to ask for it:
+//
+//   java -XX:StartFlightRecording:filename=lox.jfr,+com.lox.FunctionCall#enabled=true,
+//        +com.lox.Phase#enabled=true,+com.lox.RuntimeError#enabled=true com.lox.Lox script.lx
+//
+// Until a recording has started, calls don't even create the event.
+@Name("com.lox.FunctionCall")
+@Label("Lox Function Call")
+@Category("Lox")
+@Description("A Lox function call that took longer than the threshold.")
+@Enabled(false)
+@Threshold("1 ms")
+@StackTrace(false)
+final class FunctionCallEvent extends Event {
+    @Label("Function")
+    String function;
+
+    @Label("Line")
+    int line;
+
+    // A begun event if calls are being recorded, null otherwise. Interpreted and C1 code
+    // would allocate an event per call, the JIT only removes it in hot code.
+    static FunctionCallEvent start() {
+        if (!FlightRecorder.isInitialized()) return null;
+        FunctionCallEvent event = new FunctionCallEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,12 @@
+package com.lox;
+
+// A global variable's cell, which knows the globals it belongs to. The syntax tree caches
+// these at access sites, and a tree can be run by several Interpreters.
+final class GlobalCell extends Cell {
+    final Environment globals;
+
+    GlobalCell(Environment globals, Object value) {
+        super(value);
+        this.globals = globals;
+    }
+}
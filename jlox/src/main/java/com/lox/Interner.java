@@ -0,0 +1,76 @@
+package com.lox;
+
+// The table behind Symbol. Names are looked up straight from the characters they were
+// scanned from, so a repeated name costs no new String; ids are handed out in order.
+//
+// One table serves every thread that parses. Lookups don't lock: entries are only ever
+// added to a table, never moved or removed, and growing publishes a new table. A lookup
+// that misses takes the lock and looks again before adding, so a name can't get two
+// Symbols. A ConcurrentHashMap would need a String to look up with, one per token.
+final class Interner {
+    private volatile Symbol[] table = new Symbol[1024];
+    // Guarded by this, like the writes to table.
+    private int count = 0;
+
+    Symbol intern(CharSequence chars, int start, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars.charAt(start + i);
+        }
+
+        Symbol found = find(table, hash, chars, start, length);
+        if (found != null) return found;
+
+        synchronized (this) {
+            Symbol[] table = this.table;
+            int mask = table.length - 1;
+            for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+                Symbol symbol = table[i];
+                if (symbol == null) {
+                    // Symbol's fields are final, a lookup that sees it in the table sees them set.
+                    symbol = new Symbol(chars.subSequence(start, start + length).toString(), count);
+                    table[i] = symbol;
+                    if (++count * 2 > table.length) grow();
+                    return symbol;
+                }
+                if (symbol.name.length() == length && matches(symbol.name, chars, start)) return symbol;
+            }
+        }
+    }
+
+    // Null if the name isn't in table, or wasn't yet when its slot was read.
+    private static Symbol find(Symbol[] table, int hash, CharSequence chars, int start, int length) {
+        int mask = table.length - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            Symbol symbol = table[i];
+            if (symbol == null) return null;
+            if (symbol.name.length() == length && matches(symbol.name, chars, start)) return symbol;
+        }
+    }
+
+    private static boolean matches(String name, CharSequence chars, int start) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != chars.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    // The hash above is String.hashCode, so entries can be rehashed without their characters.
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    // Fills a new table and only then publishes it, lookups still on the old one stay valid.
+    private void grow() {
+        Symbol[] old = table;
+        Symbol[] grown = new Symbol[old.length * 2];
+        int mask = grown.length - 1;
+        for (Symbol symbol : old) {
+            if (symbol == null) continue;
+            int i = spread(symbol.name.hashCode()) & mask;
+            while (grown[i] != null) i = (i + 1) & mask;
+            grown[i] = symbol;
+        }
+        table = grown;
+    }
+}
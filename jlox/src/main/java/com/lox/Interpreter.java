@@ -1,23 +1,45 @@
 package com.lox;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
-public class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void> {
+public class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Completion> {
     final Environment globals = new Environment();
     private Environment environment = globals;
-    private boolean isBreaking = false;
-    private final Map<Expression, Integer> locals = new HashMap<>();
+    // Value of the last executed return statement, read by LoxFunction.
+    Object returnValue = null;
+    // A call in tail position, left for the calling LoxFunction to run when returnValue is LoxFunction.TAIL_CALL.
+    LoxFunction tailCallee = null;
+    Object[] tailArguments = null;
+    // Frames of the active function calls. A frame is never captured, closures only keep
+    // the cells of their variables, so each one is reused by the next call at its depth.
+    private Environment[] frames = new Environment[64];
+    // Also read by RuntimeStats, from another thread.
+    int frameCount = 0;
+    // Set with --profile and --sample. Checked once per statement and per call, see LoxFunction.
+    final Profiler profiler;
+    final ShadowStack callStack;
+    // Null without --stats. Statements and calls are counted here until there is a batch for stats.
+    final RuntimeStats stats = RuntimeStats.get();
+    private int pendingStatements = 0;
+    private int pendingCalls = 0;
 
     Interpreter() {
-        globals.define("clock", new LoxCallable() {
+        this(null, null);
+    }
+
+    Interpreter(Profiler profiler, ShadowStack callStack) {
+        this.profiler = profiler;
+        this.callStack = callStack;
+        if (stats != null) stats.register(this);
+        globals.define(Symbol.of("clock"), new LoxCallable() {
             @Override
             public int arity() { return 0; }
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (stats != null) stats.nativeCalls.increment();
                 return (double)System.currentTimeMillis() / 1000.0;
             }
 
@@ -26,34 +48,78 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         });
     }
     
-    public void resolve(Expression expression, int depth) {
-        locals.put(expression, depth);
+    private Object lookupVariable(Expression.Variable expression) {
+        if (expression.isGlobal) {
+            return getGlobal(expression);
+        }
+        if (expression.capture >= 0) {
+            return environment.captures[expression.capture].value;
+        }
+        return environment.get(expression.slot);
     }
 
-    private Object lookupVariable(Token name, Expression expression) {
-        Integer distance = locals.get(expression);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
-        } else {
-            return globals.get(name);
-        }
+    // A global access site caches the global's cell after the first successful lookup. Other
+    // Interpreters may run the same syntax tree, so the cell is only used if it is one of ours.
+    Object getGlobal(Expression.Variable expression) {
+        GlobalCell cell = expression.cell;
+        if (cell == null || cell.globals != globals) cell = expression.cell = globals.cell(expression.name);
+        return cell.value;
+    }
+
+    void setGlobal(Expression.Assign expression, Object value) {
+        GlobalCell cell = expression.cell;
+        if (cell == null || cell.globals != globals) cell = expression.cell = globals.cell(expression.name);
+        cell.value = value;
     }
 
     public void interpret(List<Statement> statements) {
+        if (callStack != null) callStack.depth = 1;
         try {
             for (Statement statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError err) {
+            if (stats != null) stats.runtimeErrors.increment();
             Lox.runtimeError(err);
+            // After a stack overflow, finally blocks that ran out of stack themselves may
+            // have left frames pushed. The next line in the REPL starts from a clean state.
+            while (frameCount > 0) popFrame(frames[frameCount - 1].slots.length);
+            environment = globals;
+        } finally {
+            if (callStack != null) callStack.depth = 0;
+            if (stats != null) flushStats();
         }
     }
 
-    private void execute(Statement statement) {
-        statement.accept(this);
+    void countStatement() {
+        if (++pendingStatements == RuntimeStats.BATCH) {
+            stats.statements.add(RuntimeStats.BATCH);
+            pendingStatements = 0;
+        }
+    }
+
+    void countCall() {
+        if (++pendingCalls == RuntimeStats.BATCH) {
+            stats.calls.add(RuntimeStats.BATCH);
+            pendingCalls = 0;
+        }
+    }
+
+    private void flushStats() {
+        stats.statements.add(pendingStatements);
+        stats.calls.add(pendingCalls);
+        pendingStatements = 0;
+        pendingCalls = 0;
+    }
+
+    private Completion execute(Statement statement) {
+        if (profiler != null) profiler.statement(statement.line);
+        if (callStack != null) callStack.line(statement.line);
+        if (stats != null) countStatement();
+        return statement.accept(this);
     }
 
-    private String stringify(Object obj) {
+    static String stringify(Object obj) {
         if (obj == null) return "nil";
         if (obj instanceof Double) {
             String text = obj.toString();
@@ -65,67 +131,34 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         return obj.toString();
     }
 
-    private Object evaluate(Expression expression) {
+    Object evaluate(Expression expression) {
         return expression.accept(this);
     }
 
+    // Evaluates an expression whose parent expects a number without boxing intermediate
+    // results. Throws UnexpectedResult carrying the value if it is not a number after all.
+    double evaluateDouble(Expression expression) {
+        if (expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary)expression;
+            return binary.operation.evaluateDouble(this, binary);
+        }
+        if (expression instanceof Expression.Unary) {
+            Expression.Unary unary = (Expression.Unary)expression;
+            return unary.operation.evaluateDouble(this, unary);
+        }
+        if (expression instanceof Expression.Grouping) {
+            return evaluateDouble(((Expression.Grouping)expression).expression);
+        }
+
+        Object value = expression.accept(this);
+        if (value instanceof Double) return (Double)value;
+        throw new UnexpectedResult(value);
+    }
+
     // Interpret expressions:
     @Override
     public Object visitBinaryExpression(Expression.Binary expression) {
-        Object left = evaluate(expression.left);
-        Object right = evaluate(expression.right);
-
-        switch(expression.operator.type) {
-            case MINUS:
-                checkNumberOperands(expression.operator, left, right);
-                return (Double)left - (Double)right;
-            case STAR:
-                checkNumberOperands(expression.operator, left, right);
-                return (Double)left * (Double)right;
-            case SLASH:
-                checkNumberOperands(expression.operator, left, right);
-                if ((Double)right == 0) throw new RuntimeError(expression.operator, "Division by zero detected.");
-                return (Double)left / (Double)right;
-            case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (Double)left + (Double)right;
-                }
-                if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
-                }
-                if (left instanceof String) {
-                    return (String)left + stringify(right);
-                }
-                if (right instanceof String) {
-                    return stringify(left) + (String) right;
-                }
-                throw new RuntimeError(expression.operator, "Operands must be two numbers or two strings.");
-
-            case LESS:
-                checkNumberOperands(expression.operator, left, right);
-                return (Double)left < (Double)right;
-            case LESS_EQUAL:
-                checkNumberOperands(expression.operator, left, right);
-                return (Double)left <= (Double)right;
-            case GREATER:
-                checkNumberOperands(expression.operator, left, right);
-                return (Double)left > (Double)right;
-            case GREATER_EQUAL:
-                checkNumberOperands(expression.operator, left, right);
-                return (Double)left >= (Double)right;
-
-            case EQUAL_EQUAL:
-                return isEqual(left, right);
-            case BANG_EQUAL:
-                return !isEqual(left, right);
-
-            case COMMA:
-                return right;
-                
-            default:
-        }
-
-        return null;
+        return expression.operation.evaluate(this, expression);
     }
 
     @Override
@@ -147,27 +180,19 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
     @Override
     public Object visitUnaryExpression(Expression.Unary expression) {
-        Object right = evaluate(expression.right);
-        switch (expression.operator.type) {
-            case MINUS:
-                checkNumberOperand(expression.operator, right);
-                return -(Double)right;
-            case BANG:
-                return !isTrue(right);
-            default:
-        }
-        return null;
+        return expression.operation.evaluate(this, expression);
     }
 
     @Override
     public Object visitAssignExpression(Expression.Assign expression) {
         Object value = evaluate(expression.value);
 
-        Integer distance = locals.get(expression);
-        if (distance != null) {
-            environment.assignAt(distance, expression.name, value);
+        if (expression.isGlobal) {
+            setGlobal(expression, value);
+        } else if (expression.capture >= 0) {
+            environment.captures[expression.capture].value = value;
         } else {
-            globals.assign(expression.name, value);
+            environment.assign(expression.slot, value);
         }
 
         return value;
@@ -176,7 +201,7 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
     @Override
     public Object visitVariableExpression(Expression.Variable expression) {
         // return environment.get(expression.name);
-        return lookupVariable(expression.name, expression);
+        return lookupVariable(expression);
     }
 
     @Override
@@ -195,137 +220,253 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
     @Override
     public Object visitCallExpression(Expression.Call expression) {
         Object callee = evaluate(expression.callee);
+        List<Expression> arguments = expression.arguments;
+        int count = arguments.size();
+
+        // Running out of Java stack is the Lox program recursing too deep. Reported at the
+        // innermost call that can still build the error, like the VM does at FRAMES_MAX.
+        try {
+            if (count > 4) {
+                List<Object> values = new ArrayList<>(count);
+                for (Expression argument : arguments) {
+                    values.add(evaluate(argument));
+                }
+                return callable(callee, count, expression.paren).call(this, values);
+            }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expression argument : expression.arguments) {
-            arguments.add(evaluate(argument));
+            Object a = count > 0 ? evaluate(arguments.get(0)) : null;
+            Object b = count > 1 ? evaluate(arguments.get(1)) : null;
+            Object c = count > 2 ? evaluate(arguments.get(2)) : null;
+            Object d = count > 3 ? evaluate(arguments.get(3)) : null;
+            LoxCallable function = callable(callee, count, expression.paren);
+            // A LoxFunction is entered directly rather than through callN, one Java frame less per Lox call.
+            if (function instanceof LoxFunction) return ((LoxFunction)function).invoke(this, a, b, c, d, null);
+            switch (count) {
+                case 0: return function.call0(this);
+                case 1: return function.call1(this, a);
+                case 2: return function.call2(this, a, b);
+                case 3: return function.call3(this, a, b, c);
+                default: return function.call4(this, a, b, c, d);
+            }
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(expression.paren, "Stack overflow.");
         }
+    }
 
+    // Calls LoxFunctions by handing them to the caller's trampoline instead of
+    // nesting another call on the Java stack. Other callables are called directly.
+    Object tailCall(Object callee, Object[] arguments, Token paren) {
+        LoxCallable function = callable(callee, arguments.length, paren);
+        if (function instanceof LoxFunction) {
+            tailCallee = (LoxFunction)function;
+            tailArguments = arguments;
+            return LoxFunction.TAIL_CALL;
+        }
+        return function.call(this, Arrays.asList(arguments));
+    }
+
+    // Checks that the callee can be called with the given number of arguments.
+    static LoxCallable callable(Object callee, int argumentCount, Token paren) {
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expression.paren, "Can only call function and classes.");
+            throw new RuntimeError(paren, "Can only call function and classes.");
         }
 
         LoxCallable function = (LoxCallable)callee;
 
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expression.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        if (argumentCount != function.arity()) {
+            throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + argumentCount + ".");
         }
-
-        return function.call(this, arguments);
+        return function;
     }
 
     @Override
     public Object visitFunctionExpression(Expression.Function statement) {
-        LoxFunction function = new LoxFunction(statement.function, environment);
+        LoxFunction function = new LoxFunction(statement.function, capture(statement.function));
         return function;
     }
 
-    private boolean isTrue(Object obj) {
+    static boolean isTrue(Object obj) {
         if (obj == null) return false;
         if (obj instanceof Boolean) return (boolean)obj;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
+        // The same string may be a String on one side and a Rope on the other.
+        if (a instanceof Rope) a = a.toString();
+        if (b instanceof Rope) b = b.toString();
         return a.equals(b);
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    static void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    static void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) return;
         throw new RuntimeError(operator, "Operands must be a numbers");
     }
 
     // Interpret statements:
     @Override
-    public Void visitExpressionStmStatement(Statement.ExpressionStm statement) {
+    public Completion visitExpressionStmStatement(Statement.ExpressionStm statement) {
         evaluate(statement.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStatement(Statement.Print statement) {
+    public Completion visitPrintStatement(Statement.Print statement) {
         Object value = evaluate(statement.expression);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitVarStatement(Statement.Var statement) {
+    public Completion visitVarStatement(Statement.Var statement) {
+        if (statement.slot >= 0) environment.clear(statement.slot);
         Object value = null;
         if (statement.initializer != null) {
             value = evaluate(statement.initializer);
         }
-        environment.define(statement.name.lexeme, value);
-        return null;
+        define(statement.name, statement.slot, value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBlockStatement(Statement.Block statement) {
-        executeBlock(statement.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStatement(Statement.Block statement) {
+        if (statement.slotCount > 0) {
+            if (stats != null) stats.environments.increment();
+            return executeBlock(statement.statements, new Environment(statement.slotCount));
+        }
+        // Otherwise the block's locals live in the frame of the enclosing function.
+        return executeStatements(statement.statements);
     }
 
     @Override
-    public Void visitIfStatement(Statement.If statement) {
+    public Completion visitIfStatement(Statement.If statement) {
         Object cond = evaluate(statement.condition);
         if (isTrue(cond)) {
-            execute(statement.thenBranch);
+            return execute(statement.thenBranch);
         } else if (statement.elseBranch != null) {
-            execute(statement.elseBranch);
+            return execute(statement.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStatement(Statement.While statement) {
+    public Completion visitWhileStatement(Statement.While statement) {
         while (isTrue(evaluate(statement.condition))) {
-            execute(statement.body);
-            if (isBreaking) break;
+            Completion completion = execute(statement.body);
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
         }
-        isBreaking = false;
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBreakStatement(Statement.Break statement) {
-        isBreaking = true;
-
-        return null;
+    public Completion visitBreakStatement(Statement.Break statement) {
+        return Completion.BREAK;
     }
 
     @Override
-    public Void visitFunctionStatement(Statement.Function statement) {
-        LoxFunction function = new LoxFunction(statement, environment);
-        environment.define(statement.name.lexeme, function);
-        return null;
+    public Completion visitFunctionStatement(Statement.Function statement) {
+        if (statement.slot >= 0) environment.clear(statement.slot);
+        LoxFunction function = new LoxFunction(statement, capture(statement));
+        define(statement.name, statement.slot, function);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStatement(Statement.Return statement) {
+    public Completion visitReturnStatement(Statement.Return statement) {
         Object value = null;
-        if (statement.value != null) value = evaluate(statement.value);
+        if (statement.value instanceof Expression.Call && ((Expression.Call)statement.value).isTailCall) {
+            value = tailCall((Expression.Call)statement.value);
+        } else if (statement.value != null) {
+            // Not through evaluate, each frame between two calls shortens how deep Lox can recurse.
+            value = statement.value.accept(this);
+        }
+
+        returnValue = value;
+        return Completion.RETURN;
+    }
 
-        throw new Return(value);
+    private Object tailCall(Expression.Call call) {
+        Object callee = evaluate(call.callee);
+        Object[] arguments = new Object[call.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(call.arguments.get(i));
+        }
+        return tailCall(callee, arguments, call.paren);
     }
 
-    public void executeBlock(List<Statement> statements, Environment environment) {
+    // Collects the cells of the variables a new closure captures: slots of the current frame,
+    // or variables the enclosing function captured itself.
+    private Cell[] capture(Statement.Function function) {
+        Cell[] captures = new Cell[function.captureIndexes.length];
+        for (int i = 0; i < captures.length; i++) {
+            int index = function.captureIndexes[i];
+            captures[i] = function.captureIsLocal[i] ? environment.capture(index) : environment.captures[index];
+        }
+        return captures;
+    }
+
+    private void define(Token name, int slot, Object value) {
+        if (slot < 0) {
+            environment.define(name.symbol, value);
+        } else {
+            environment.define(slot, value);
+        }
+    }
+
+    Environment pushFrame(Cell[] captures, int size) {
+        if (frameCount == frames.length) frames = Arrays.copyOf(frames, frameCount * 2);
+        Environment frame = frames[frameCount];
+        if (frame == null || frame.slots.length < size) {
+            if (stats != null) stats.environments.increment();
+            frame = frames[frameCount] = new Environment(size);
+        }
+        frameCount++;
+        frame.captures = captures;
+        return frame;
+    }
+
+    // Clears the slots the call used so the frame doesn't keep its values alive.
+    void popFrame(int size) {
+        Environment frame = frames[--frameCount];
+        Arrays.fill(frame.slots, 0, size, null);
+        frame.captures = null;
+    }
+
+    // Every function call runs through this method, and each Java frame on the way shortens
+    // how deep Lox can recurse. So it repeats executeStatements and execute rather than calling them.
+    public Completion executeBlock(List<Statement> statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
-
-            for (Statement statement : statements) {
-                execute(statement);
-                if (isBreaking) break;
+            for (int i = 0, size = statements.size(); i < size; i++) {
+                Statement statement = statements.get(i);
+                if (profiler != null) profiler.statement(statement.line);
+                if (callStack != null) callStack.line(statement.line);
+                if (stats != null) countStatement();
+                Completion completion = statement.accept(this);
+                if (completion != Completion.NORMAL) return completion;
             }
+            return Completion.NORMAL;
         } finally {
             this.environment = previous;
         }
     }
+
+    // Stops at the first statement that breaks or returns and hands its completion up.
+    private Completion executeStatements(List<Statement> statements) {
+        // Indexed rather than for-each, an Iterator per block run is garbage on every call.
+        for (int i = 0, size = statements.size(); i < size; i++) {
+            Completion completion = execute(statements.get(i));
+            if (completion != Completion.NORMAL) return completion;
+        }
+        return Completion.NORMAL;
+    }
 }
@@ -0,0 +1,468 @@
+package com.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Translates the body of a hot function into a JVM class extending CompiledFunction.
+// Only leaf functions are compiled: without nested functions nothing can capture
+// the call's locals, so every local can live in a JVM local variable. Anything
+// else is left to the Interpreter.
+public class JitCompiler implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+    // Calls before a function is compiled. Lowered by tests to compile on the first call.
+    static int threshold = 1000;
+    static boolean enabled = true;
+
+    private static final String SUPPORT = "com/lox/CompiledFunction";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String INVOKE_DESCRIPTOR =
+            "(Lcom/lox/Interpreter;[Lcom/lox/Cell;[Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final int INTERPRETER = 1;
+    private static final int CAPTURES = 2;
+    private static final int FRAME = 3;
+    private static final int FIRST_LOCAL = 4;
+
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final ClassFile file;
+    private ClassFile.Code code;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+    private ClassFile.Label loopExit = null;
+
+    private JitCompiler(String className) {
+        file = new ClassFile(className, SUPPORT);
+    }
+
+    // Returns null if the function uses something the compiler doesn't handle.
+    static CompiledFunction compile(Statement.Function declaration) {
+        if (!enabled) return null;
+        JitCompiler compiler = new JitCompiler("com/lox/CompiledFunction$" + declaration.name.lexeme);
+        try {
+            byte[] bytes = compiler.compileClass(declaration);
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            Object instance = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, Object[].class))
+                    .invoke(compiler.constants.toArray());
+            return (CompiledFunction)instance;
+        } catch (Unsupported | ClassFile.TooLargeException unsupported) {
+            return null;
+        } catch (Throwable error) {
+            // A class the JVM refuses to load is a JIT bug, the function keeps running in the Interpreter.
+            System.err.println("jit: could not compile '" + declaration.name.lexeme + "': " + error);
+            return null;
+        }
+    }
+
+    private byte[] compileClass(Statement.Function declaration) {
+        ClassFile.Code constructor = file.method(0, "<init>", "([Ljava/lang/Object;)V", 2);
+        constructor.local(ClassFile.ALOAD, 0);
+        constructor.local(ClassFile.ALOAD, 1);
+        constructor.indexed(ClassFile.INVOKESPECIAL, file.methodRef(SUPPORT, "<init>", "([Ljava/lang/Object;)V"), -2);
+        constructor.op(ClassFile.RETURN, 0);
+        constructor.end();
+
+        code = file.method(0, "invoke", INVOKE_DESCRIPTOR, FIRST_LOCAL);
+        for (int i = 0; i < declaration.slotCount; i++) {
+            if (i < declaration.params.size()) {
+                code.local(ClassFile.ALOAD, FRAME);
+                code.pushInt(i);
+                code.op(ClassFile.AALOAD, -1);
+            } else {
+                code.op(ClassFile.ACONST_NULL, 1);
+            }
+            code.local(ClassFile.ASTORE, localFor(i));
+        }
+        compile(declaration.body);
+        code.op(ClassFile.ACONST_NULL, 1);
+        code.op(ClassFile.ARETURN, -1);
+        code.end();
+        return file.toByteArray();
+    }
+
+    // Frame slot i lives in JVM local FIRST_LOCAL + i.
+    private static int localFor(int slot) {
+        return FIRST_LOCAL + slot;
+    }
+
+    // Emitting code:
+    private void constant(Object value, String type) {
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+        code.local(ClassFile.ALOAD, 0);
+        code.indexed(ClassFile.GETFIELD, file.fieldRef(SUPPORT, "constants", "[Ljava/lang/Object;"), 0);
+        code.pushInt(index);
+        code.op(ClassFile.AALOAD, -1);
+        code.indexed(ClassFile.CHECKCAST, file.classRef(type), 0);
+    }
+
+    private void invokeSupport(String name, String descriptor) {
+        invokeStatic(SUPPORT, name, descriptor);
+    }
+
+    private void invokeStatic(String owner, String name, String descriptor) {
+        code.indexed(ClassFile.INVOKESTATIC, file.methodRef(owner, name, descriptor), stackEffect(descriptor));
+    }
+
+    // Every type in the descriptors used here takes a single stack slot.
+    private static int stackEffect(String descriptor) {
+        int effect = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            while (c == '[') c = descriptor.charAt(++i);
+            if (c == 'L') i = descriptor.indexOf(';', i);
+            effect--;
+            i++;
+        }
+        return descriptor.charAt(i + 1) == 'V' ? effect : effect + 1;
+    }
+
+    private void compile(List<Statement> statements) {
+        for (Statement statement : statements) {
+            compile(statement);
+        }
+    }
+
+    // Counted wherever Interpreter.execute would count it, when stats are kept at all.
+    private void compile(Statement statement) {
+        if (RuntimeStats.enabled) {
+            code.local(ClassFile.ALOAD, INTERPRETER);
+            invokeSupport("countStatement", "(Lcom/lox/Interpreter;)V");
+        }
+        statement.accept(this);
+    }
+
+    private void compile(Expression expression) {
+        expression.accept(this);
+    }
+
+    // Leaves the truthiness of the expression on the stack as an int.
+    private void condition(Expression expression) {
+        if (expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary)expression;
+            String helper = comparisonHelper(binary.operation);
+            if (helper != null) {
+                compile(binary.left);
+                compile(binary.right);
+                constant(binary, "com/lox/Expression$Binary");
+                invokeSupport(helper, "(Ljava/lang/Object;Ljava/lang/Object;Lcom/lox/Expression$Binary;)Z");
+                return;
+            }
+            if (binary.operation == BinaryOperation.EQUAL || binary.operation == BinaryOperation.NOT_EQUAL) {
+                compile(binary.left);
+                compile(binary.right);
+                invokeSupport("isEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+                if (binary.operation == BinaryOperation.NOT_EQUAL) invert();
+                return;
+            }
+        }
+        if (expression instanceof Expression.Unary
+                && ((Expression.Unary)expression).operation == UnaryOperation.NOT) {
+            condition(((Expression.Unary)expression).right);
+            invert();
+            return;
+        }
+        if (expression instanceof Expression.Grouping) {
+            condition(((Expression.Grouping)expression).expression);
+            return;
+        }
+        compile(expression);
+        invokeSupport("isTrue", "(Ljava/lang/Object;)Z");
+    }
+
+    private void invert() {
+        code.pushInt(1);
+        code.op(ClassFile.IXOR, -1);
+    }
+
+    private void box() {
+        invokeStatic("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+    }
+
+    private static String comparisonHelper(BinaryOperation operation) {
+        if (operation == BinaryOperation.DOUBLE_LESS) return "less";
+        if (operation == BinaryOperation.DOUBLE_LESS_EQUAL) return "lessEqual";
+        if (operation == BinaryOperation.DOUBLE_GREATER) return "greater";
+        if (operation == BinaryOperation.DOUBLE_GREATER_EQUAL) return "greaterEqual";
+        return null;
+    }
+
+    private static String arithmeticHelper(BinaryOperation operation) {
+        if (operation == BinaryOperation.DOUBLE_ADD) return "add";
+        if (operation == BinaryOperation.DOUBLE_SUBTRACT) return "subtract";
+        if (operation == BinaryOperation.DOUBLE_MULTIPLY) return "multiply";
+        if (operation == BinaryOperation.DOUBLE_DIVIDE) return "divide";
+        if (operation == BinaryOperation.STRING_CONCAT) return "concat";
+        return "binary";
+    }
+
+    // Compile statements:
+    @Override
+    public Void visitExpressionStmStatement(Statement.ExpressionStm statement) {
+        compile(statement.expression);
+        code.op(ClassFile.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.Print statement) {
+        compile(statement.expression);
+        invokeSupport("print", "(Ljava/lang/Object;)V");
+        return null;
+    }
+
+    @Override
+    public Void visitVarStatement(Statement.Var statement) {
+        if (statement.initializer != null) {
+            compile(statement.initializer);
+        } else {
+            code.op(ClassFile.ACONST_NULL, 1);
+        }
+        code.local(ClassFile.ASTORE, localFor(statement.slot));
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStatement(Statement.Block statement) {
+        compile(statement.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(Statement.If statement) {
+        ClassFile.Label elseBranch = new ClassFile.Label();
+        ClassFile.Label end = new ClassFile.Label();
+        condition(statement.condition);
+        code.jump(ClassFile.IFEQ, elseBranch);
+        compile(statement.thenBranch);
+        code.jump(ClassFile.GOTO, end);
+        code.mark(elseBranch);
+        if (statement.elseBranch != null) compile(statement.elseBranch);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.While statement) {
+        ClassFile.Label enclosingExit = loopExit;
+        ClassFile.Label start = new ClassFile.Label();
+        ClassFile.Label exit = new ClassFile.Label();
+        loopExit = exit;
+
+        code.mark(start);
+        condition(statement.condition);
+        code.jump(ClassFile.IFEQ, exit);
+        compile(statement.body);
+        code.jump(ClassFile.GOTO, start);
+        code.mark(exit);
+
+        loopExit = enclosingExit;
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStatement(Statement.Break statement) {
+        if (loopExit == null) throw new Unsupported();
+        code.jump(ClassFile.GOTO, loopExit);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.Function statement) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.Return statement) {
+        if (statement.value instanceof Expression.Call && ((Expression.Call)statement.value).isTailCall) {
+            Expression.Call call = (Expression.Call)statement.value;
+            code.local(ClassFile.ALOAD, INTERPRETER);
+            compile(call.callee);
+            arguments(call.arguments);
+            constant(call.paren, "com/lox/Token");
+            invokeSupport("tailCall", "(Lcom/lox/Interpreter;Ljava/lang/Object;[Ljava/lang/Object;Lcom/lox/Token;)Ljava/lang/Object;");
+        } else if (statement.value != null) {
+            compile(statement.value);
+        } else {
+            code.op(ClassFile.ACONST_NULL, 1);
+        }
+        code.op(ClassFile.ARETURN, -1);
+        return null;
+    }
+
+    // Compile expressions:
+    @Override
+    public Void visitAssignExpression(Expression.Assign expression) {
+        compile(expression.value);
+        code.op(ClassFile.DUP, 1);
+        if (expression.isGlobal) {
+            code.local(ClassFile.ALOAD, INTERPRETER);
+            constant(expression, "com/lox/Expression$Assign");
+            invokeSupport("setGlobal", "(Ljava/lang/Object;Lcom/lox/Interpreter;Lcom/lox/Expression$Assign;)V");
+            return null;
+        }
+        if (expression.capture >= 0) {
+            code.local(ClassFile.ALOAD, CAPTURES);
+            code.pushInt(expression.capture);
+            invokeSupport("setCapture", "(Ljava/lang/Object;[Lcom/lox/Cell;I)V");
+        } else {
+            code.local(ClassFile.ASTORE, localFor(expression.slot));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(Expression.Binary expression) {
+        if (expression.operation == BinaryOperation.COMMA) {
+            compile(expression.left);
+            code.op(ClassFile.POP, -1);
+            compile(expression.right);
+            return null;
+        }
+        if (comparisonHelper(expression.operation) != null
+                || expression.operation == BinaryOperation.EQUAL
+                || expression.operation == BinaryOperation.NOT_EQUAL) {
+            condition(expression);
+            box();
+            return null;
+        }
+
+        compile(expression.left);
+        compile(expression.right);
+        constant(expression, "com/lox/Expression$Binary");
+        invokeSupport(arithmeticHelper(expression.operation),
+                "(Ljava/lang/Object;Ljava/lang/Object;Lcom/lox/Expression$Binary;)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpression(Expression.Ternary expression) {
+        ClassFile.Label elseBranch = new ClassFile.Label();
+        ClassFile.Label end = new ClassFile.Label();
+        condition(expression.left);
+        code.jump(ClassFile.IFEQ, elseBranch);
+        compile(expression.middle);
+        code.jump(ClassFile.GOTO, end);
+        code.setStackDepth(code.stackDepth() - 1);
+        code.mark(elseBranch);
+        compile(expression.right);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(Expression.Grouping expression) {
+        compile(expression.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpression(Expression.Literal expression) {
+        Object value = expression.value;
+        if (value == null) {
+            code.op(ClassFile.ACONST_NULL, 1);
+        } else if (value instanceof String) {
+            code.ldc(file.string((String)value));
+        } else if (value instanceof Boolean) {
+            code.indexed(ClassFile.GETSTATIC, file.fieldRef("java/lang/Boolean",
+                    (Boolean)value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;"), 1);
+        } else {
+            // Reuse the literal's boxed Double instead of allocating one per evaluation.
+            constant(value, OBJECT);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpression(Expression.Unary expression) {
+        if (expression.operation == UnaryOperation.NOT) {
+            condition(expression);
+            box();
+            return null;
+        }
+        compile(expression.right);
+        constant(expression, "com/lox/Expression$Unary");
+        invokeSupport(expression.operation == UnaryOperation.DOUBLE_NEGATE ? "negate" : "unary",
+                "(Ljava/lang/Object;Lcom/lox/Expression$Unary;)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpression(Expression.Variable expression) {
+        if (expression.isGlobal) {
+            code.local(ClassFile.ALOAD, INTERPRETER);
+            constant(expression, "com/lox/Expression$Variable");
+            invokeSupport("getGlobal", "(Lcom/lox/Interpreter;Lcom/lox/Expression$Variable;)Ljava/lang/Object;");
+            return null;
+        }
+        if (expression.capture >= 0) {
+            code.local(ClassFile.ALOAD, CAPTURES);
+            code.pushInt(expression.capture);
+            invokeSupport("getCapture", "([Lcom/lox/Cell;I)Ljava/lang/Object;");
+        } else {
+            code.local(ClassFile.ALOAD, localFor(expression.slot));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpression(Expression.Logical expression) {
+        ClassFile.Label end = new ClassFile.Label();
+        compile(expression.left);
+        code.op(ClassFile.DUP, 1);
+        invokeSupport("isTrue", "(Ljava/lang/Object;)Z");
+        code.jump(expression.operator.type == TokenType.OR ? ClassFile.IFNE : ClassFile.IFEQ, end);
+        code.op(ClassFile.POP, -1);
+        compile(expression.right);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpression(Expression.Call expression) {
+        code.local(ClassFile.ALOAD, INTERPRETER);
+        compile(expression.callee);
+        if (expression.arguments.size() <= 4) {
+            // Passed one by one to the fixed-arity entry points of LoxCallable.
+            StringBuilder descriptor = new StringBuilder("(Lcom/lox/Interpreter;Ljava/lang/Object;");
+            for (Expression argument : expression.arguments) {
+                compile(argument);
+                descriptor.append("Ljava/lang/Object;");
+            }
+            constant(expression.paren, "com/lox/Token");
+            invokeSupport("call", descriptor.append("Lcom/lox/Token;)Ljava/lang/Object;").toString());
+            return null;
+        }
+        arguments(expression.arguments);
+        constant(expression.paren, "com/lox/Token");
+        invokeSupport("call", "(Lcom/lox/Interpreter;Ljava/lang/Object;[Ljava/lang/Object;Lcom/lox/Token;)Ljava/lang/Object;");
+        return null;
+    }
+
+    private void arguments(List<Expression> arguments) {
+        code.pushInt(arguments.size());
+        code.indexed(ClassFile.ANEWARRAY, file.classRef(OBJECT), 0);
+        for (int i = 0; i < arguments.size(); i++) {
+            code.op(ClassFile.DUP, 1);
+            code.pushInt(i);
+            compile(arguments.get(i));
+            code.op(ClassFile.AASTORE, -3);
+        }
+    }
+
+    @Override
+    public Void visitFunctionExpression(Expression.Function expression) {
+        throw new Unsupported();
+    }
+}
@@ -0,0 +1,32 @@
+package com.lox;
+
+import java.util.List;
+
+// The tokens of a function body the Parser only matched braces over. The body is parsed
+// and resolved when the function is first called; until then the function's statement
+// has an empty body and no frame layout.
+final class LazyBody {
+    private final TokenBuffer tokens;
+    // Index of the first token after the body's '{'.
+    private final int start;
+
+    LazyBody(TokenBuffer tokens, int start) {
+        this.tokens = tokens;
+        this.start = start;
+    }
+
+    void parse(Statement.Function function) {
+        List<Statement> body = new Parser(tokens.from(start)).parseBody();
+        if (body != null && !Lox.hadError) {
+            function.body.addAll(body);
+            new Resolver().resolveBody(function);
+        }
+
+        // The errors have been reported, but the script is already running.
+        if (Lox.hadError) {
+            function.body.clear();
+            throw new RuntimeError(function.name, "Could not compile '" + function.name.lexeme + "'.");
+        }
+        function.lazyBody = null;
+    }
+}
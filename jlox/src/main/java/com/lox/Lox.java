@@ -3,21 +3,61 @@ package com.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
+import jdk.jfr.FlightRecorder;
 
 public class Lox {
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
-    private static final Interpreter interpreter = new Interpreter();
+    private static Interpreter interpreter;
+    private static VM vm = null;
+    private static Profiler profiler = null;
+    private static Sampler sampler = null;
+    private static boolean lazy = false;
+    private static AstCache cache = null;
+
+    // Scripts up to this size are read whole and scanned into a TokenBuffer, larger ones are
+    // streamed through the Scanner so they never have to fit in memory.
+    private static final long BUFFERED_SOURCE_LIMIT = 16 * 1024 * 1024;
 
     public static void main(String[] args) throws IOException {
+        int options = 0;
+        ShadowStack callStack = null;
+        while (options < args.length && args[options].startsWith("--")) {
+            String option = args[options++];
+            if (option.startsWith("--sample=")) {
+                callStack = new ShadowStack();
+                sampler = new Sampler(callStack, Paths.get(option.substring("--sample=".length())));
+                continue;
+            }
+            switch (option) {
+                case "--vm": vm = new VM(); break;
+                case "--no-jit": JitCompiler.enabled = false; break;
+                case "--lazy": lazy = true; break;
+                case "--cache": cache = new AstCache(AstCache.defaultDirectory()); break;
+                case "--profile": profiler = new Profiler(); break;
+                case "--stats": RuntimeStats.enabled = true; break;
+                default: usage();
+            }
+        }
+        args = Arrays.copyOfRange(args, options, args.length);
+
+        // Compiled code doesn't count statements or report lines, the profile and the samples
+        // need every function interpreted.
+        if (profiler != null || sampler != null) JitCompiler.enabled = false;
+        interpreter = new Interpreter(profiler, callStack);
+        if (sampler != null) sampler.start();
+
         if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
+            usage();
         } else if (args.length == 1) {
             runFile(args[0]);
         } else {
@@ -25,10 +65,32 @@ public class Lox {
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--vm] [--no-jit] [--lazy] [--cache] [--profile] [--sample=<file>] [--stats] [script]");
+        System.out.println("  --profile and --sample turn the JIT off, for exact lines at the cost of speed.");
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        Path file = Paths.get(path);
+        if (Files.size(file) <= BUFFERED_SOURCE_LIMIT && cache != null) {
+            // The cache is keyed by a digest of the bytes.
+            byte[] source = Files.readAllBytes(file);
+            List<Statement> statements = cache.load(source);
+            if (statements == null) {
+                statements = parse(scan(new String(source, Charset.defaultCharset())));
+                if (statements != null) cache.store(source, statements);
+            }
+            if (statements != null) execute(statements);
+        } else if (Files.size(file) <= BUFFERED_SOURCE_LIMIT) {
+            run(scan(readString(file)));
+        } else {
+            try (Reader reader = new InputStreamReader(Files.newInputStream(file), Charset.defaultCharset())) {
+                run(new Scanner(reader));
+            }
+        }
 
+        finish();
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
     }
@@ -41,26 +103,66 @@ public class Lox {
             System.out.print(">");
             String line = reader.readLine();
             if (line == null) break;
-            run(line);
+            run(Scanner.scan(line));
             hadError = false;
         }
+        finish();
+    }
+
+    private static void finish() throws IOException {
+        if (profiler != null) profiler.report(System.err);
+        if (sampler != null) sampler.stop();
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
+    // Decodes straight into the String, without a copy of the bytes. Malformed input is
+    // replaced, as the Scanner's Reader does.
+    private static String readString(Path file) throws IOException {
+        try {
+            return Files.readString(file, Charset.defaultCharset());
+        } catch (CharacterCodingException error) {
+            return new String(Files.readAllBytes(file), Charset.defaultCharset());
+        }
+    }
+
+    private static TokenBuffer scan(String source) {
+        PhaseEvent scanning = PhaseEvent.start("scan");
+        TokenBuffer tokens = Scanner.scan(source);
+        scanning.commit();
+        return tokens;
+    }
+
+    private static void run(TokenSource tokens) {
+        List<Statement> statements = parse(tokens);
+        if (statements != null) execute(statements);
+    }
+
+    // Parses and resolves a script, returns null if it has errors. From a streaming Scanner
+    // the tokens are scanned as they are parsed, and the parse phase includes scanning.
+    private static List<Statement> parse(TokenSource tokens) {
+        // The VM compiles every function up front, there is no point deferring their parsing.
+        // A cached script has to be complete, and skips parsing next time anyway.
+        PhaseEvent parsing = PhaseEvent.start("parse");
+        Parser parser = new Parser(tokens, lazy && vm == null && cache == null);
         List<Statement> statements = parser.parse();
+        parsing.commit();
 
-        if (hadError) return;
+        if (hadError) return null;
 
-        Resolver resolver = new Resolver(interpreter);
+        PhaseEvent resolving = PhaseEvent.start("resolve");
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
+        resolving.commit();
 
-        if (hadError) return;
+        if (hadError) return null;
+        return statements;
+    }
 
-        
-        interpreter.interpret(statements);
+    private static void execute(List<Statement> statements) {
+        if (vm != null) {
+            vm.interpret(statements);
+        } else {
+            interpreter.interpret(statements);
+        }
         // System.out.println(new AstPrinter().print(expression));
         // System.out.println(tokens);
     }
@@ -85,5 +187,13 @@ public class Lox {
     static void runtimeError(RuntimeError error) {
         System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
         hadRuntimeError = true;
+
+        if (!FlightRecorder.isInitialized()) return;
+        RuntimeErrorEvent event = new RuntimeErrorEvent();
+        if (event.shouldCommit()) {
+            event.message = error.getMessage();
+            event.line = error.token.line;
+            event.commit();
+        }
     }
 }
@@ -1,8 +1,32 @@
 package com.lox;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public interface LoxCallable {
     Object call(Interpreter interpreter, List<Object> arguments);
     int arity();
+
+    // Fixed-arity entry points used by calls with up to four arguments, so a call
+    // doesn't have to build an argument list. Callables that care override them.
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, Collections.singletonList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
+
+    default Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return call(interpreter, Arrays.asList(a, b, c, d));
+    }
 }
@@ -3,26 +3,146 @@ package com.lox;
 import java.util.List;
 
 public class LoxFunction implements LoxCallable {
+    // Returned in place of a value when the function ended in a tail call.
+    static final Object TAIL_CALL = new Object();
+
     private final Statement.Function declaration;
-    private final Environment closure;
+    // Only the variables the body uses from enclosing functions, not their whole environments.
+    private final Cell[] captures;
 
-    LoxFunction(Statement.Function declaration, Environment closure) {
+    LoxFunction(Statement.Function declaration, Cell[] captures) {
         this.declaration = declaration;
-        this.closure = closure;
+        this.captures = captures;
+    }
+
+    // The frame of a new call. A body that was only pre-parsed is parsed first, as the
+    // frame size isn't known before.
+    private Environment pushFrame(Interpreter interpreter) {
+        parseLazyBody();
+        return interpreter.pushFrame(captures, declaration.slotCount);
+    }
+
+    // Throws a RuntimeError if the body doesn't compile.
+    private void parseLazyBody() {
+        if (declaration.lazyBody != null) declaration.lazyBody.parse(declaration);
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+        return invoke(interpreter, null, null, null, null, arguments);
+    }
+
+    // The fixed-arity entry points, used by compiled code, don't build an argument list either.
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke(interpreter, null, null, null, null, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return invoke(interpreter, a, null, null, null, null);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return invoke(interpreter, a, b, null, null, null);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return invoke(interpreter, a, b, c, null, null);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return invoke(interpreter, a, b, c, d, null);
+    }
+
+    // The whole call, tail calls included, runs in this one Java frame so deep recursion in
+    // Lox gets as far as it can on the Java stack. The Interpreter calls it directly. The
+    // arguments are in a to d, unused ones null, or all of them in arguments when there are
+    // more than four.
+    //
+    // Tail calls go through a trampoline: a function returning TAIL_CALL left the next callee
+    // and its arguments in the Interpreter, and it runs here instead of deeper on the Java stack.
+    //
+    // Outside of a recording with FunctionCallEvent enabled, the event costs a check per call.
+    Object invoke(Interpreter interpreter, Object a, Object b, Object c, Object d, List<Object> arguments) {
+        Environment frame = pushFrame(interpreter);
+        if (arguments != null) {
+            for (int i = 0; i < arguments.size(); i++) {
+                frame.slots[i] = arguments.get(i);
+            }
+        } else {
+            switch (declaration.params.size()) {
+                case 4: frame.slots[3] = d; // fall through
+                case 3: frame.slots[2] = c; // fall through
+                case 2: frame.slots[1] = b; // fall through
+                case 1: frame.slots[0] = a; // fall through
+                default:
+            }
         }
+
+        FunctionCallEvent event = FunctionCallEvent.start();
+        LoxFunction function = this;
+        // The hooks are read from the Interpreter where they are used, locals would make the frame bigger.
+        if (interpreter.profiler != null) interpreter.profiler.enter(declaration);
+        if (interpreter.callStack != null) interpreter.callStack.push(declaration);
+        if (interpreter.stats != null) interpreter.countCall();
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            return returnValue.value;
+            while (true) {
+                Statement.Function called = function.declaration;
+                if (called.compiled == null && ++called.callCount == JitCompiler.threshold) {
+                    called.compiled = JitCompiler.compile(called);
+                }
+
+                Object result;
+                if (called.compiled != null) {
+                    result = called.compiled.invoke(interpreter, function.captures, frame.slots);
+                } else if (interpreter.executeBlock(called.body, frame) == Completion.RETURN) {
+                    result = interpreter.returnValue;
+                    interpreter.returnValue = null;
+                } else {
+                    result = null;
+                }
+                if (result != TAIL_CALL) return result;
+
+                LoxFunction callee = interpreter.tailCallee;
+                Object[] tailArguments = interpreter.tailArguments;
+                interpreter.tailCallee = null;
+                interpreter.tailArguments = null;
+
+                // While the callee's body can still fail to compile, the caller's frame stays
+                // pushed for the finally below to pop.
+                callee.parseLazyBody();
+
+                // The caller is done with its frame, the callee takes over its place on the frame stack.
+                interpreter.popFrame(called.slotCount);
+                if (interpreter.profiler != null) {
+                    interpreter.profiler.exit();
+                    interpreter.profiler.enter(callee.declaration);
+                }
+                if (interpreter.callStack != null) interpreter.callStack.replace(callee.declaration);
+                if (interpreter.stats != null) interpreter.countCall();
+                function = callee;
+                frame = callee.pushFrame(interpreter);
+                System.arraycopy(tailArguments, 0, frame.slots, 0, tailArguments.length);
+            }
+        } finally {
+            interpreter.popFrame(function.declaration.slotCount);
+            if (interpreter.profiler != null) interpreter.profiler.exit();
+            if (interpreter.callStack != null) interpreter.callStack.pop();
+            if (event != null) commit(event);
+        }
+    }
+
+    private void commit(FunctionCallEvent event) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.function = Profiler.name(declaration);
+            event.line = declaration.name.line;
+            event.commit();
         }
-        return null;
     }
 
     @Override
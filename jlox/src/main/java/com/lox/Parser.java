@@ -7,12 +7,24 @@ import java.util.List;
 public class Parser {
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
-    private int current = 0;
+    // The parser never looks further than one token ahead, the source keeps track of the
+    // current and the previous token.
+    private final TokenSource tokens;
     private boolean inLoop = false;
+    // Set when the bodies of top-level functions are left to LazyBody.
+    private final TokenBuffer lazyTokens;
+    private int blockDepth = 0;
 
-    Parser(List<Token> tokens) {
+    Parser(TokenSource tokens) {
+        this(tokens, false);
+    }
+
+    // Lazy parsing needs the tokens of a body to still be around when it is called,
+    // so it only applies to a TokenBuffer.
+    Parser(TokenSource tokens, boolean lazy) {
         this.tokens = tokens;
+        this.lazyTokens = lazy && tokens instanceof TokenBuffer ? (TokenBuffer)tokens : null;
+        tokens.next();
     }
 
     private Expression expression() {
@@ -29,8 +41,11 @@ public class Parser {
 
     private Statement declaration() {
         try {
+            int line = tokens.line();
             if (match(TokenType.VAR)) {
-                return varDeclaration();
+                Statement declaration = varDeclaration();
+                declaration.line = line;
+                return declaration;
             }
             return statement();
         } catch (RuntimeError err) {
@@ -40,7 +55,8 @@ public class Parser {
     }
 
     private Statement varDeclaration() {
-        Token varName = consume(TokenType.IDENTIFIER, "Expected variable name.");
+        consume(TokenType.IDENTIFIER, "Expected variable name.");
+        Token varName = previous();
 
         Expression initializer = null;
         if (match(TokenType.EQUAL)) {
@@ -50,7 +66,15 @@ public class Parser {
         return new Statement.Var(varName, initializer);
     }
 
+    // Every statement records the line it starts on, for --profile.
     private Statement statement() {
+        int line = tokens.line();
+        Statement statement = simpleStatement();
+        statement.line = line;
+        return statement;
+    }
+
+    private Statement simpleStatement() {
         if (match(TokenType.FUN)) return function("function");
         if (match(TokenType.FOR)) return forStatement();
         if (match(TokenType.WHILE)) return whileStatement();
@@ -72,7 +96,8 @@ public class Parser {
     }
 
     private Statement.Function function(String kind) {
-        Token name = consume(TokenType.IDENTIFIER, "Expected " + kind + " name.");
+        consume(TokenType.IDENTIFIER, "Expected " + kind + " name.");
+        Token name = previous();
 
         consume(TokenType.LEFT_PAREN, "Expected '(' after " + kind + " name.");
         List<Token> parameters = new ArrayList<>();
@@ -81,16 +106,40 @@ public class Parser {
                 if (parameters.size() >= 255) {
                     error(peek(), "Can't have more than 255 parameters");
                 }
-                parameters.add(consume(TokenType.IDENTIFIER, "Expected parameter name."));
+                consume(TokenType.IDENTIFIER, "Expected parameter name.");
+                parameters.add(previous());
             } while (match(TokenType.COMMA));
         }
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters");
 
         consume(TokenType.LEFT_BRACE, "Expected '{' before " + kind + " body.");
-        List<Statement> body = block();
+        if (lazyTokens != null && blockDepth == 0) return lazyFunction(name, parameters);
+        List<Statement> body = functionBody();
         return new Statement.Function(name, parameters, body);
     }
 
+    // A top-level function can only refer to its own locals and to globals, so its body
+    // resolves the same whenever it is parsed. It is skipped by matching braces for now.
+    private Statement.Function lazyFunction(Token name, List<Token> parameters) {
+        int start = lazyTokens.position();
+        lazyTokens.seek(lazyTokens.closingBrace(start));
+        consume(TokenType.RIGHT_BRACE, "Expected '}' after block.");
+
+        Statement.Function function = new Statement.Function(name, parameters, new ArrayList<Statement>());
+        function.lazyBody = new LazyBody(lazyTokens, start);
+        return function;
+    }
+
+    // Parses a function body, from the token after its '{', for LazyBody. Returns null if
+    // the body has errors, they have been reported.
+    List<Statement> parseBody() {
+        try {
+            return functionBody();
+        } catch (ParseError error) {
+            return null;
+        }
+    }
+
     private Expression functionExpr() {
         Token name = previous();
         consume(TokenType.LEFT_PAREN, "Expected '(' after function declaration");
@@ -100,13 +149,14 @@ public class Parser {
                 if (parameters.size() >= 255) {
                     error(peek(), "Can't have more than 255 parameters");
                 }
-                parameters.add(consume(TokenType.IDENTIFIER, "Expected parameter name."));
+                consume(TokenType.IDENTIFIER, "Expected parameter name.");
+                parameters.add(previous());
             } while (match(TokenType.COMMA));
         }
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters");
 
         consume(TokenType.LEFT_BRACE, "Expected '{' before function body.");
-        List<Statement> body = block();
+        List<Statement> body = functionBody();
         return new Expression.Function(new Statement.Function(name, parameters, body));
     }
 
@@ -120,6 +170,7 @@ public class Parser {
     }
 
     private Statement forStatement() {
+        int line = previous().line;
         boolean outer_loop = !inLoop;
         inLoop = true;
 
@@ -133,6 +184,7 @@ public class Parser {
         } else {
             initializer = expressionStatement();
         }
+        if (initializer != null) initializer.line = line;
 
         Expression condition = null;
         if (!check(TokenType.SEMICOLON)) {
@@ -150,12 +202,14 @@ public class Parser {
 
         // desugaring for to while
         if (increment != null) {
-            body = new Statement.Block(
-                Arrays.asList(body, new Statement.ExpressionStm(increment))
-            );
+            Statement step = new Statement.ExpressionStm(increment);
+            step.line = line;
+            body = new Statement.Block(Arrays.asList(body, step));
+            body.line = line;
         }
         if (condition == null) condition = new Expression.Literal(true);
         body = new Statement.While(condition, body);
+        body.line = line;
         if (initializer != null) {
             body = new Statement.Block(
                 Arrays.asList(initializer, body)
@@ -193,12 +247,25 @@ public class Parser {
         return new Statement.If(condition, thenBranch, elseBranch);
     }
 
+    // A loop around a function doesn't make 'break' valid inside its body.
+    private List<Statement> functionBody() {
+        boolean enclosingLoop = inLoop;
+        inLoop = false;
+        try {
+            return block();
+        } finally {
+            inLoop = enclosingLoop;
+        }
+    }
+
     private List<Statement> block() {
         List<Statement> statements = new ArrayList<>();
 
+        blockDepth++;
         while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
             statements.add(declaration());
         }
+        blockDepth--;
 
         consume(TokenType.RIGHT_BRACE, "Expected '}' after block.");
         return statements;
@@ -233,7 +300,8 @@ public class Parser {
         Expression expression = ternary();
 
         if (match(TokenType.EQUAL)) {
-            Token equals = previous();
+            // Only needed for the error below.
+            Token equals = expression instanceof Expression.Variable ? null : previous();
             Expression value = assignment();
 
             if (expression instanceof Expression.Variable) {
@@ -350,7 +418,8 @@ public class Parser {
         while (match(TokenType.LEFT_PAREN)) {
             List<Expression> arguments = new ArrayList<>();
             if (!check(TokenType.RIGHT_PAREN)) arguments = arguments(); 
-            Token paren = consume(TokenType.RIGHT_PAREN, "Expected ')' after arguments.");
+            consume(TokenType.RIGHT_PAREN, "Expected ')' after arguments.");
+            Token paren = previous();
 
             expression = new Expression.Call(expression, paren, arguments);
         }
@@ -376,7 +445,7 @@ public class Parser {
         if (match(TokenType.NIL)) return new Expression.Literal(null);
 
         if (match(TokenType.NUMBER, TokenType.STRING)) {
-            return new Expression.Literal(previous().literal);
+            return new Expression.Literal(tokens.previousLiteral());
         }
 
         if (match(TokenType.LEFT_PAREN)) {
@@ -392,10 +461,9 @@ public class Parser {
         throw error(peek(), "Expected expression.");
     }
 
-    private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
-
-        throw error(peek(), message);
+    private void consume(TokenType type, String message) {
+        if (!check(type)) throw error(peek(), message);
+        advance();
     }
 
     private ParseError error(Token token, String message) {
@@ -409,7 +477,7 @@ public class Parser {
         while (!isAtEnd()) {
             if (previous().type == TokenType.SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (tokens.type()) {
                 case CLASS:
                 case FUN:
                 case VAR:
@@ -439,24 +507,25 @@ public class Parser {
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type() == type;
     }
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return tokens.type() == TokenType.EOF;
     }
 
-    private Token advance() {
-        if (!isAtEnd()) current++;
-        return previous();
+    private void advance() {
+        if (!isAtEnd()) tokens.next();
     }
 
+    // A Token of the current or the previous token, built on each call for a TokenBuffer.
+    // Only for tokens that go into the tree or an error message.
     private Token peek() {
-        return tokens.get(current);
+        return tokens.current();
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.previous();
     }
 
 }
@@ -0,0 +1,29 @@
+package com.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// How long a script took to scan, parse and resolve, in a JFR recording next to the JVM's own
+// events. Off unless the recording turns it on, see FunctionCallEvent.
+@Name("com.lox.Phase")
+@Label("Lox Phase")
+@Category("Lox")
+@Description("Scanning, parsing or resolving a script.")
+@Enabled(false)
+@StackTrace(false)
+final class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    static PhaseEvent start(String phase) {
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+}
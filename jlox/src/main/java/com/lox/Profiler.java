@@ -0,0 +1,102 @@
+package com.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Collects what --profile reports: calls and time per function, and the statements run per
+// line. Functions are counted by declaration, so all closures made from one add up.
+final class Profiler {
+    private static final int LINES_REPORTED = 20;
+
+    private static class FunctionStats {
+        final Statement.Function declaration;
+        long calls = 0;
+        long inclusive = 0;
+        long exclusive = 0;
+        // Calls on the stack. A recursive call's time is already in its outermost call's.
+        int active = 0;
+
+        FunctionStats(Statement.Function declaration) {
+            this.declaration = declaration;
+        }
+    }
+
+    // A call in progress. Reused, like the Interpreter's frames, by the next call at its depth.
+    private static class Activation {
+        FunctionStats function;
+        long start;
+        long children;
+    }
+
+    private final Map<Statement.Function, FunctionStats> functions = new IdentityHashMap<>();
+    private Activation[] stack = new Activation[64];
+    private int depth = 0;
+    private long[] statements = new long[256];
+
+    void enter(Statement.Function declaration) {
+        FunctionStats function = functions.get(declaration);
+        if (function == null) {
+            function = new FunctionStats(declaration);
+            functions.put(declaration, function);
+        }
+        function.calls++;
+        function.active++;
+
+        if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+        Activation activation = stack[depth];
+        if (activation == null) activation = stack[depth] = new Activation();
+        depth++;
+        activation.function = function;
+        activation.children = 0;
+        activation.start = System.nanoTime();
+    }
+
+    void exit() {
+        long now = System.nanoTime();
+        Activation activation = stack[--depth];
+        long elapsed = now - activation.start;
+        FunctionStats function = activation.function;
+        activation.function = null;
+
+        function.exclusive += elapsed - activation.children;
+        if (--function.active == 0) function.inclusive += elapsed;
+        if (depth > 0) stack[depth - 1].children += elapsed;
+    }
+
+    void statement(int line) {
+        if (line >= statements.length) statements = Arrays.copyOf(statements, Math.max(line + 1, statements.length * 2));
+        statements[line]++;
+    }
+
+    // Function expressions are named by their 'fun' keyword.
+    static String name(Statement.Function function) {
+        return function.name.type == TokenType.FUN ? "<anonymous>" : function.name.lexeme;
+    }
+
+    // Functions by exclusive time, then the busiest lines.
+    void report(PrintStream out) {
+        List<FunctionStats> sorted = new ArrayList<>(functions.values());
+        sorted.sort((a, b) -> Long.compare(b.exclusive, a.exclusive));
+        out.printf("%-32s %12s %14s %14s%n", "function", "calls", "inclusive ms", "exclusive ms");
+        for (FunctionStats function : sorted) {
+            String label = name(function.declaration) + " (line " + function.declaration.name.line + ")";
+            out.printf("%-32s %12d %14.3f %14.3f%n", label, function.calls,
+                    function.inclusive / 1e6, function.exclusive / 1e6);
+        }
+
+        List<Integer> lines = new ArrayList<>();
+        for (int line = 1; line < statements.length; line++) {
+            if (statements[line] > 0) lines.add(line);
+        }
+        lines.sort((a, b) -> Long.compare(statements[b], statements[a]));
+        out.println();
+        out.printf("%-32s %12s%n", "line", "statements");
+        for (int line : lines.subList(0, Math.min(LINES_REPORTED, lines.size()))) {
+            out.printf("%-32d %12d%n", line, statements[line]);
+        }
+    }
+}
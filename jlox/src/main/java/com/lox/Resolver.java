@@ -1,5 +1,6 @@
 package com.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Stack;
@@ -11,19 +12,36 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
     }
     private class VarData {
         public Token declaration = null;
+        public final int slot;
         public boolean used = false;
         public boolean initialized = false;
 
-        VarData(Token declaration) { this.declaration = declaration; }
+        VarData(Token declaration, int slot) {
+            this.declaration = declaration;
+            this.slot = slot;
+        }
     }
     
-    private final Interpreter interpreter;
-    private final Stack<Map<String, VarData>> scopes = new Stack<>();
-    private FunctionType currentFunction = FunctionType.NONE;
-
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    // A function being resolved: the index of its outermost scope, its frame layout and the
+    // enclosing variables it captures. The script itself is the outermost function.
+    private class FunctionData {
+        final FunctionData enclosing;
+        final int scopeBase;
+        // Locals of nested blocks are hoisted into the function's frame, sibling blocks share slots.
+        int nextSlot = 0;
+        int slotCount = 0;
+        final List<Boolean> captureIsLocal = new ArrayList<>();
+        final List<Integer> captureIndexes = new ArrayList<>();
+
+        FunctionData(FunctionData enclosing, int scopeBase) {
+            this.enclosing = enclosing;
+            this.scopeBase = scopeBase;
+        }
     }
+    
+    private final Stack<Map<Symbol, VarData>> scopes = new Stack<>();
+    private FunctionType currentFunction = FunctionType.NONE;
+    private FunctionData function = new FunctionData(null, 0);
 
     public void resolve(List<Statement> statements) {
         for (Statement statement : statements) {
@@ -31,6 +49,11 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         }
     }
 
+    // Resolves the body of a top-level function parsed after the rest of the script.
+    void resolveBody(Statement.Function function) {
+        resolveFunction(function, FunctionType.FUNCTION);
+    }
+
     private void resolve(Statement statement) {
         statement.accept(this);
     }
@@ -40,45 +63,74 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, VarData>());
+        scopes.push(new HashMap<Symbol, VarData>());
     }
 
     private void endScope() {
-        for (Map.Entry<String, VarData> entry : scopes.peek().entrySet()) {
+        for (Map.Entry<Symbol, VarData> entry : scopes.peek().entrySet()) {
             if (entry.getValue().used == Boolean.FALSE) {
                 Lox.error(entry.getValue().declaration, "The value of '" + entry.getKey() + "' is never used");
             }
         }
-        scopes.pop();
+        function.nextSlot -= scopes.pop().size();
     }
 
-    private void declare(Token name) {
-        if (scopes.empty()) return;
-        Map<String, VarData> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
+    // Returns the slot of the new local in its function's frame, or -1 for globals.
+    private int declare(Token name) {
+        if (scopes.empty()) return -1;
+        Map<Symbol, VarData> scope = scopes.peek();
+        if (scope.containsKey(name.symbol)) {
             Lox.error(name, "Already a variable with this name in this scope");
+            return scope.get(name.symbol).slot;
         }
-        scope.put(name.lexeme, new VarData(name));
+        VarData data = new VarData(name, function.nextSlot++);
+        function.slotCount = Math.max(function.slotCount, function.nextSlot);
+        scope.put(name.symbol, data);
+        return data.slot;
     }
 
     private void define(Token name) {
         if (scopes.empty()) return;
-        scopes.peek().get(name.lexeme).initialized = true;
+        scopes.peek().get(name.symbol).initialized = true;
     }
 
-    private void resolveLocal(Expression expression, Token name) {
+    // Returns the index of the scope declaring the name, or -1 if it is left to the globals.
+    private int resolveLocal(Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expression, scopes.size() - 1 - i);
-                scopes.get(i).get(name.lexeme).used = true;
-                return;
+            VarData data = scopes.get(i).get(name.symbol);
+            if (data != null) {
+                data.used = true;
+                return i;
             }
         }
+        return -1;
     }
 
+    // Adds a variable declared in an enclosing function to the captures of the given function,
+    // and of every function in between, and returns its index in the closure's captures.
+    private int capture(FunctionData function, int scope, VarData data) {
+        boolean isLocal = scope >= function.enclosing.scopeBase;
+        int index;
+        if (isLocal) {
+            // A slot in the frame the closure is created in.
+            index = data.slot;
+        } else {
+            index = capture(function.enclosing, scope, data);
+        }
+
+        for (int i = 0; i < function.captureIndexes.size(); i++) {
+            if (function.captureIsLocal.get(i) == isLocal && function.captureIndexes.get(i) == index) return i;
+        }
+        function.captureIsLocal.add(isLocal);
+        function.captureIndexes.add(index);
+        return function.captureIndexes.size() - 1;
+    }
+
+
     private void resolveFunction(Statement.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        this.function = new FunctionData(this.function, scopes.size());
 
         beginScope();
         for (Token param : function.params) {
@@ -88,6 +140,15 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         resolve(function.body);
         endScope();
 
+        FunctionData data = this.function;
+        function.slotCount = data.slotCount;
+        function.captureIsLocal = new boolean[data.captureIndexes.size()];
+        function.captureIndexes = new int[data.captureIndexes.size()];
+        for (int i = 0; i < function.captureIndexes.length; i++) {
+            function.captureIsLocal[i] = data.captureIsLocal.get(i);
+            function.captureIndexes[i] = data.captureIndexes.get(i);
+        }
+        this.function = data.enclosing;
         currentFunction = enclosingFunction;    
     }
 
@@ -106,7 +167,7 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
 
     @Override
     public Void visitVarStatement(Statement.Var statement) {
-        declare(statement.name);
+        statement.slot = declare(statement.name);
         if (statement.initializer != null) {
             resolve(statement.initializer);
         }
@@ -116,9 +177,17 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
 
     @Override
     public Void visitBlockStatement(Statement.Block statement) {
+        // Only a block in top-level code needs a frame of its own, holding the locals of every block nested in it.
+        boolean opensFrame = scopes.isEmpty();
+
         beginScope();
         resolve(statement.statements);
         endScope();
+
+        if (opensFrame) {
+            statement.slotCount = function.slotCount;
+            function.slotCount = 0;
+        }
         return null;
     }
 
@@ -144,9 +213,16 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
 
     @Override
     public Void visitFunctionStatement(Statement.Function statement) {
-        declare(statement.name);
+        statement.slot = declare(statement.name);
         define(statement.name);
 
+        // A pre-parsed body is resolved along with its parsing, by resolveBody. Being at the
+        // top level, the function has nothing to capture.
+        if (statement.lazyBody != null) {
+            statement.captureIsLocal = new boolean[0];
+            statement.captureIndexes = new int[0];
+            return null;
+        }
         resolveFunction(statement, FunctionType.FUNCTION);
         return null;
     }
@@ -158,13 +234,26 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         }
         
         if (statement.value != null) resolve(statement.value);
+        // The called function can run in place of this one, see LoxFunction.
+        if (statement.value instanceof Expression.Call && currentFunction != FunctionType.NONE) {
+            ((Expression.Call)statement.value).isTailCall = true;
+        }
         return null;
     }
 
     @Override
     public Void visitAssignExpression(Expression.Assign expression) {
         resolve(expression.value);
-        resolveLocal(expression, expression.name);
+        int scope = resolveLocal(expression.name);
+        if (scope >= 0) {
+            VarData data = scopes.get(scope).get(expression.name.symbol);
+            expression.isGlobal = false;
+            if (scope >= function.scopeBase) {
+                expression.slot = data.slot;
+            } else {
+                expression.capture = capture(function, scope, data);
+            }
+        }
         return null;
     }
 
@@ -202,12 +291,21 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
 
     @Override
     public Void visitVariableExpression(Expression.Variable expression) {
-        if (!scopes.isEmpty() && scopes.peek().containsKey(expression.name.lexeme) && 
-            scopes.peek().get(expression.name.lexeme).initialized == Boolean.FALSE) {
+        if (!scopes.isEmpty() && scopes.peek().containsKey(expression.name.symbol) && 
+            scopes.peek().get(expression.name.symbol).initialized == Boolean.FALSE) {
             Lox.error(expression.name, "Can't read local variable in its own initializer.");
         }
 
-        resolveLocal(expression, expression.name);
+        int scope = resolveLocal(expression.name);
+        if (scope >= 0) {
+            VarData data = scopes.get(scope).get(expression.name.symbol);
+            expression.isGlobal = false;
+            if (scope >= function.scopeBase) {
+                expression.slot = data.slot;
+            } else {
+                expression.capture = capture(function, scope, data);
+            }
+        }
         return null;
     }
 
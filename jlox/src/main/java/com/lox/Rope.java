@@ -0,0 +1,90 @@
+package com.lox;
+
+// A long Lox string produced by '+'. Lox strings are Strings or Ropes, code that only needs
+// their characters takes a CharSequence.
+//
+// A Rope is a prefix of a StringBuilder that may be shared with longer Ropes. Appending to
+// the Rope that ends where its buffer does extends the buffer in place, so the usual
+// 's = s + piece;' loop costs amortized O(1) per piece instead of copying all of s every
+// time. Appending to any other Rope, or prepending, copies. The String is only made when
+// something needs it, printing or comparing, and kept.
+final class Rope implements CharSequence {
+    // Shorter results stay Strings, copying those is cheaper than keeping a buffer around.
+    static final int MIN_LENGTH = 256;
+
+    // Only ever appended to, so every Rope on it keeps seeing the same characters.
+    private final StringBuilder buffer;
+    private final int length;
+    private String flat = null;
+
+    private Rope(StringBuilder buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    // The value of left + right, a String or a Rope.
+    static Object concat(CharSequence left, CharSequence right) {
+        int length = left.length() + right.length();
+        if (left instanceof Rope) {
+            Rope rope = (Rope)left;
+            // Scripts on other threads may hold Ropes on the same buffer.
+            synchronized (rope.buffer) {
+                if (rope.length == rope.buffer.length()) {
+                    append(rope.buffer, right);
+                    return new Rope(rope.buffer, length);
+                }
+            }
+        }
+        if (length < MIN_LENGTH) return left.toString().concat(right.toString());
+
+        StringBuilder buffer = new StringBuilder(2 * length);
+        append(buffer, left);
+        append(buffer, right);
+        return new Rope(buffer, length);
+    }
+
+    private static void append(StringBuilder buffer, CharSequence text) {
+        if (text instanceof Rope) {
+            Rope rope = (Rope)text;
+            if (rope.flat != null) {
+                buffer.append(rope.flat);
+            } else {
+                buffer.append(rope.buffer, 0, rope.length);
+            }
+        } else {
+            buffer.append(text);
+        }
+    }
+
+    // A string operand of '+' as it is, anything else as Lox prints it.
+    static CharSequence text(Object value) {
+        if (value instanceof CharSequence) return (CharSequence)value;
+        return Interpreter.stringify(value);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length) throw new IndexOutOfBoundsException(index);
+        return buffer.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            synchronized (buffer) {
+                flat = buffer.substring(0, length);
+            }
+        }
+        return flat;
+    }
+}
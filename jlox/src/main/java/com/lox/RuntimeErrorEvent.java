@@ -0,0 +1,24 @@
+package com.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// A runtime error reported by either engine, with the line of the Lox code it happened on.
+@Name("com.lox.RuntimeError")
+@Label("Lox Runtime Error")
+@Category("Lox")
+@Description("A runtime error that stopped a script.")
+@Enabled(false)
+@StackTrace(false)
+final class RuntimeErrorEvent extends Event {
+    @Label("Message")
+    String message;
+
+    @Label("Line")
+    int line;
+}
@@ -0,0 +1,96 @@
+package com.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters of every Interpreter in the JVM, for watching Lox activity from JMX consoles next
+// to the GC and CPU graphs. LongAdders keep scripts running on different threads from
+// contending on them. Only kept with --stats, otherwise Interpreter.stats is null and
+// the platform MBean server is never started.
+//
+// Statements are counted by the Interpreter and by functions the JIT compiled while stats
+// were on. The VM of --vm counts nothing, its scripts leave every counter at zero.
+//
+// Even an uncontended atomic add per call costs about as much as the call itself, so an
+// Interpreter counts statements and calls in plain fields and adds them here in batches,
+// see Interpreter.countStatement. The call depth isn't counted at all, it is read from
+// the frame stacks of the live Interpreters when asked for.
+public final class RuntimeStats implements RuntimeStatsMBean {
+    static final int BATCH = 1024;
+
+    static boolean enabled = false;
+
+    private static RuntimeStats instance = null;
+
+    final LongAdder statements = new LongAdder();
+    final LongAdder calls = new LongAdder();
+    final LongAdder environments = new LongAdder();
+    final LongAdder runtimeErrors = new LongAdder();
+    final LongAdder nativeCalls = new LongAdder();
+    private final Map<Interpreter, Boolean> interpreters = new WeakHashMap<>();
+
+    private RuntimeStats() {}
+
+    // Starting the platform MBean server takes a good part of a second, so the counters are
+    // registered from a thread of their own and a short script doesn't wait for it.
+    static synchronized RuntimeStats get() {
+        if (!enabled) return null;
+        if (instance == null) {
+            RuntimeStats stats = new RuntimeStats();
+            Thread registration = new Thread(() -> {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(stats, new ObjectName("com.lox:type=Interpreter"));
+                } catch (JMException e) {
+                    System.err.println("stats: could not register MBean: " + e);
+                }
+            }, "lox-stats-registration");
+            registration.setDaemon(true);
+            registration.start();
+            instance = stats;
+        }
+        return instance;
+    }
+
+    synchronized void register(Interpreter interpreter) {
+        interpreters.put(interpreter, Boolean.TRUE);
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statements.sum();
+    }
+
+    @Override
+    public long getFunctionCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getEnvironmentsAllocated() {
+        return environments.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return runtimeErrors.sum();
+    }
+
+    @Override
+    public long getNativeCalls() {
+        return nativeCalls.sum();
+    }
+
+    // Of all the scripts running, read without synchronizing with them.
+    @Override
+    public synchronized long getCallDepth() {
+        long depth = 0;
+        for (Interpreter interpreter : interpreters.keySet()) {
+            depth += interpreter.frameCount;
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,11 @@
+package com.lox;
+
+// What RuntimeStats shows in JMX consoles, as com.lox:type=Interpreter.
+public interface RuntimeStatsMBean {
+    long getStatementsExecuted();
+    long getFunctionCalls();
+    long getEnvironmentsAllocated();
+    long getRuntimeErrors();
+    long getNativeCalls();
+    long getCallDepth();
+}
@@ -0,0 +1,84 @@
+package com.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Samples the ShadowStack from a thread of its own and writes the samples as collapsed
+// stacks, one 'frame;frame;frame count' line per distinct stack, the input format of
+// flamegraph.pl and most tools that read its output. A frame is a function and the line
+// it was running, like 'fib:4'. Compiled code doesn't report lines, so Lox turns the JIT
+// off while sampling.
+final class Sampler implements Runnable {
+    private static final long INTERVAL_MILLIS = 10;
+
+    private final ShadowStack stack;
+    private final Path output;
+    // Only touched by the sampling thread until it has been stopped.
+    private final Map<String, Long> samples = new TreeMap<>();
+    private final Thread thread = new Thread(this, "lox-sampler");
+    private volatile boolean running = true;
+
+    Sampler(ShadowStack stack, Path output) {
+        this.stack = stack;
+        this.output = output;
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() throws IOException {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(output, StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Long> sample : samples.entrySet()) {
+                writer.println(sample.getKey() + " " + sample.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            sample();
+        }
+    }
+
+    private void sample() {
+        // Read once: the interpreting thread may grow the arrays or move on meanwhile.
+        int depth = stack.depth;
+        Statement.Function[] functions = stack.functions;
+        int[] lines = stack.lines;
+        depth = Math.min(depth, Math.min(functions.length, lines.length));
+        if (depth == 0) return;
+
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            Statement.Function function = functions[i];
+            if (i > 0) {
+                // Popped while this sample was taken.
+                if (function == null) return;
+                key.append(';');
+            }
+            key.append(i == 0 ? "<script>" : Profiler.name(function)).append(':').append(lines[i]);
+        }
+        samples.merge(key.toString(), 1L, Long::sum);
+    }
+}
@@ -1,119 +1,179 @@
 package com.lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-public class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
-    private final static Map<String, TokenType> keywords;
-    private int start = 0;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+
+// Produces tokens one at a time as the Parser asks for them. The source is read through
+// a fixed-size buffer, so memory use doesn't grow with the size of the input. A source
+// that is already in memory can instead be scanned into a TokenBuffer with scan().
+public class Scanner implements TokenSource {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder lexeme = new StringBuilder();
     private int current = 0;
+    private int limit = 0;
+    private boolean reachedEnd = false;
     private int line = 1;
+    // Characters consumed so far, the start offset of the next token in a TokenBuffer.
+    private int offset = 0;
+    // The Parser's position, see TokenSource.
+    private Token currentToken = null;
+    private Token previousToken = null;
 
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", TokenType.AND);
-        keywords.put("or", TokenType.OR);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("if", TokenType.IF);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("for", TokenType.FOR);
-        keywords.put("while", TokenType.WHILE);
-        keywords.put("fun", TokenType.FUN);
-        keywords.put("nil", TokenType.NIL);
-        keywords.put("print", TokenType.PRINT);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("super", TokenType.SUPER);
-        keywords.put("this", TokenType.THIS);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("break", TokenType.BREAK);
+    Scanner(String source) {
+        this(new StringReader(source));
     }
 
-    Scanner(String source) {
-        this.source = source;
+    Scanner(Reader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public void next() {
+        if (currentToken != null && currentToken.type == TokenType.EOF) return;
+        previousToken = currentToken;
+        currentToken = nextToken();
+    }
+
+    @Override
+    public TokenType type() {
+        return currentToken.type;
+    }
+
+    @Override
+    public int line() {
+        return currentToken.line;
+    }
+
+    @Override
+    public Token current() {
+        return currentToken;
+    }
+
+    @Override
+    public Token previous() {
+        return previousToken;
+    }
+
+    @Override
+    public Object previousLiteral() {
+        return previousToken.literal;
     }
 
-    List<Token> scanTokens() {
+    // Scans up to the next token, whitespace, comments and bad characters are skipped.
+    // Keeps returning EOF once the input is exhausted.
+    Token nextToken() {
         while (!isAtEnd()) {
-            start = current;
-            scanToken();
+            lexeme.setLength(0);
+            TokenType type = scanToken();
+            if (type != null) return token(type);
         }
+        return new Token(TokenType.EOF, "", null, line);
+    }
 
-        tokens.add(new Token(TokenType.EOF, "", null, line));
+    // Scans all of source up front, keeping only the type, position and line of each token.
+    static TokenBuffer scan(String source) {
+        Scanner scanner = new Scanner(source);
+        TokenBuffer tokens = new TokenBuffer(source);
+        while (!scanner.isAtEnd()) {
+            int start = scanner.offset;
+            scanner.lexeme.setLength(0);
+            TokenType type = scanner.scanToken();
+            if (type != null) tokens.add(type, start, scanner.offset - start, scanner.line);
+        }
+        tokens.add(TokenType.EOF, scanner.offset, 0, scanner.line);
         return tokens;
     }
 
+    // Refills the buffer so that at least 'needed' characters past the current one are
+    // available, unless the input ends first.
+    private boolean fill(int needed) {
+        if (limit - current >= needed) return true;
+        if (reachedEnd) return false;
+
+        System.arraycopy(buffer, current, buffer, 0, limit - current);
+        limit -= current;
+        current = 0;
+        try {
+            while (limit < needed) {
+                int read = reader.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    reachedEnd = true;
+                    reader.close();
+                    return false;
+                }
+                limit += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !fill(1);
     }
 
-    private void scanToken() {
+    private TokenType scanToken() {
         char c = advance();
 
         switch (c) {
-            case '(': addToken(TokenType.LEFT_PAREN); break;
-            case ')': addToken(TokenType.RIGHT_PAREN); break;
-            case '{': addToken(TokenType.LEFT_BRACE); break;
-            case '}': addToken(TokenType.RIGHT_BRACE); break;
-            case ',': addToken(TokenType.COMMA); break;
-            case '.': addToken(TokenType.DOT); break;
-            case '-': addToken(TokenType.MINUS); break;
-            case '+': addToken(TokenType.PLUS); break;
-            case ';': addToken(TokenType.SEMICOLON); break;
-            case '*': addToken(TokenType.STAR); break;
-            case '?': addToken(TokenType.QUESTION); break;
-            case ':': addToken(TokenType.COLON); break;
+            case '(': return TokenType.LEFT_PAREN;
+            case ')': return TokenType.RIGHT_PAREN;
+            case '{': return TokenType.LEFT_BRACE;
+            case '}': return TokenType.RIGHT_BRACE;
+            case ',': return TokenType.COMMA;
+            case '.': return TokenType.DOT;
+            case '-': return TokenType.MINUS;
+            case '+': return TokenType.PLUS;
+            case ';': return TokenType.SEMICOLON;
+            case '*': return TokenType.STAR;
+            case '?': return TokenType.QUESTION;
+            case ':': return TokenType.COLON;
 
             case '!':
-                addToken(match('=') ? TokenType.BANG_EQUAL : TokenType.BANG);
-                break;
+                return match('=') ? TokenType.BANG_EQUAL : TokenType.BANG;
             case '=':
-                addToken(match('=') ? TokenType.EQUAL_EQUAL : TokenType.EQUAL);
-                break;
+                return match('=') ? TokenType.EQUAL_EQUAL : TokenType.EQUAL;
             case '<':
-                addToken(match('=') ? TokenType.LESS_EQUAL : TokenType.LESS);
-                break;
+                return match('=') ? TokenType.LESS_EQUAL : TokenType.LESS;
             case '>':
-                addToken(match('=') ? TokenType.GREATER_EQUAL : TokenType.GREATER);
-                break;
+                return match('=') ? TokenType.GREATER_EQUAL : TokenType.GREATER;
 
             case '/':
                 if (match('/')) {
-                    while (peek() != '\n' && !isAtEnd()) advance();
+                    while (peek() != '\n' && !isAtEnd()) skip();
                 } else if (match('*')) {
                     blockComment();
                 } else {
-                    addToken(TokenType.SLASH);
+                    return TokenType.SLASH;
                 }
-                break;
+                return null;
 
             case ' ':
             case '\r':
             case '\t':
-                break;
+                return null;
 
             case '\n':
                 line++;
-                break;
+                return null;
 
             case '"':
-                string();
-                break;
+                return string();
 
             default:
                 if (isDigit(c)) {
-                    number();
+                    return number();
                 } else if (isAlpha(c)) {
-                    identifier();
-                } else {
-                    Lox.error(line, "Unexpected character.");
+                    return identifier();
                 }
-                break;
+                Lox.error(line, "Unexpected character.");
+                return null;
         }
     }
 
@@ -130,48 +190,64 @@ public class Scanner {
         return '0' <= c && c <= '9';
     }
 
+    // Only the characters of the token being scanned are kept, in 'lexeme'.
     private char advance() {
-        return source.charAt(current++);
+        fill(1);
+        char c = buffer[current++];
+        offset++;
+        lexeme.append(c);
+        return c;
     }
 
-    private void addToken(TokenType type) {
-        addToken(type, null);
+    // Moves past a character that isn't part of any token, like those of a comment.
+    private void skip() {
+        fill(1);
+        current++;
+        offset++;
     }
 
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    private Token token(TokenType type) {
+        switch (type) {
+            case STRING: {
+                String text = lexeme.toString();
+                return new Token(type, text, text.substring(1, text.length() - 1), line);
+            }
+            case NUMBER: {
+                String text = lexeme.toString();
+                return new Token(type, text, Double.parseDouble(text), line);
+            }
+            default:
+                return new Token(type, Symbol.intern(lexeme, 0, lexeme.length()), line);
+        }
     }
 
     private boolean match(char expected) {
         if (isAtEnd()) return false;
-        if (source.charAt(current) != expected) return false;
+        if (buffer[current] != expected) return false;
         
-        current++;
+        advance();
         return true;
     }
 
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return buffer[current];
     }
 
-    private void string() {
+    private TokenType string() {
         while (peek() != '"' && !isAtEnd()) {
             if (peek() == '\n') line++;
             advance();
         }
         if (isAtEnd()) {
             Lox.error(line, "Unterminated string.");
-            return;
+            return null;
         }
         advance();
-
-        String s = source.substring(start + 1, current - 1);
-        addToken(TokenType.STRING, s);
+        return TokenType.STRING;
     }
 
-    private void number() {
+    private TokenType number() {
         while (isDigit(peek())) advance();
 
         if (peek() == '.' && isDigit(peekNext())) {
@@ -180,21 +256,65 @@ public class Scanner {
             while (isDigit(peek())) advance();
         }
 
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        return TokenType.NUMBER;
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        if (!fill(2)) return '\0';
+        return buffer[current + 1];
     } 
 
-    private void identifier() {
+    private TokenType identifier() {
         while (isAlphaNumeric(peek())) advance();
+        return keyword(lexeme);
+    }
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = TokenType.IDENTIFIER;
-        addToken(type);
+    // A trie over the keywords, unrolled into switches on the leading characters; only the
+    // remaining characters of the one candidate keyword are compared.
+    private static TokenType keyword(CharSequence text) {
+        switch (text.charAt(0)) {
+            case 'a': return keyword(text, 1, "nd", TokenType.AND);
+            case 'b': return keyword(text, 1, "reak", TokenType.BREAK);
+            case 'c': return keyword(text, 1, "lass", TokenType.CLASS);
+            case 'e': return keyword(text, 1, "lse", TokenType.ELSE);
+            case 'f':
+                if (text.length() > 1) {
+                    switch (text.charAt(1)) {
+                        case 'a': return keyword(text, 2, "lse", TokenType.FALSE);
+                        case 'o': return keyword(text, 2, "r", TokenType.FOR);
+                        case 'u': return keyword(text, 2, "n", TokenType.FUN);
+                        default:
+                    }
+                }
+                break;
+            case 'i': return keyword(text, 1, "f", TokenType.IF);
+            case 'n': return keyword(text, 1, "il", TokenType.NIL);
+            case 'o': return keyword(text, 1, "r", TokenType.OR);
+            case 'p': return keyword(text, 1, "rint", TokenType.PRINT);
+            case 'r': return keyword(text, 1, "eturn", TokenType.RETURN);
+            case 's': return keyword(text, 1, "uper", TokenType.SUPER);
+            case 't':
+                if (text.length() > 1) {
+                    switch (text.charAt(1)) {
+                        case 'h': return keyword(text, 2, "is", TokenType.THIS);
+                        case 'r': return keyword(text, 2, "ue", TokenType.TRUE);
+                        default:
+                    }
+                }
+                break;
+            case 'v': return keyword(text, 1, "ar", TokenType.VAR);
+            case 'w': return keyword(text, 1, "hile", TokenType.WHILE);
+            default:
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    private static TokenType keyword(CharSequence text, int start, String rest, TokenType type) {
+        if (text.length() != start + rest.length()) return TokenType.IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (text.charAt(start + i) != rest.charAt(i)) return TokenType.IDENTIFIER;
+        }
+        return type;
     }
 
     private boolean blockCommentEnd() {
@@ -204,15 +324,15 @@ public class Scanner {
     private void blockComment() {
         while (!blockCommentEnd() && !isAtEnd()) {
             if (peek() == '\n') line++;
-            advance();
+            skip();
         }
         if (isAtEnd()) {
             Lox.error(line, "Unterminated block comment.");
             return;
         }
 
-        advance();
-        advance();
+        skip();
+        skip();
     }
 }
 
@@ -0,0 +1,40 @@
+package com.lox;
+
+import java.util.Arrays;
+
+// The Lox call stack, kept by the Interpreter for the Sampler: the function of each active
+// call and the line of the statement it is running, with the script itself at the bottom.
+// The interpreting thread writes it without any synchronization and the sampling thread
+// reads it the same way, so a sample can now and then be torn. That is the price of a
+// stack cheap enough to leave on.
+final class ShadowStack {
+    // functions[0] stays null, it stands for the top-level code.
+    Statement.Function[] functions = new Statement.Function[64];
+    int[] lines = new int[64];
+    // 0 while nothing runs, so an idle REPL isn't sampled.
+    int depth = 0;
+
+    void push(Statement.Function function) {
+        if (depth == functions.length) {
+            functions = Arrays.copyOf(functions, depth * 2);
+            lines = Arrays.copyOf(lines, depth * 2);
+        }
+        functions[depth] = function;
+        lines[depth] = function.name.line;
+        depth++;
+    }
+
+    // A tail call: the callee takes the caller's place.
+    void replace(Statement.Function function) {
+        functions[depth - 1] = function;
+        lines[depth - 1] = function.name.line;
+    }
+
+    void pop() {
+        functions[--depth] = null;
+    }
+
+    void line(int line) {
+        lines[depth - 1] = line;
+    }
+}
@@ -3,6 +3,8 @@ package com.lox;
 import java.util.List;
 
 abstract class Statement {
+	int line = 0;
+
 	interface Visitor<T> {
 		T visitExpressionStmStatement(ExpressionStm statement);
 		T visitPrintStatement(Print statement);
@@ -42,6 +44,7 @@ abstract class Statement {
 	static class Var extends Statement {
 		final Token name;
 		final Expression initializer;
+		int slot = -1;
 
 		Var(Token name, Expression initializer) {
 			this.name = name;
@@ -55,6 +58,7 @@ abstract class Statement {
 	}
 	static class Block extends Statement {
 		final List<Statement> statements;
+		int slotCount = 0;
 
 		Block(List<Statement> statements) {
 			this.statements = statements;
@@ -111,6 +115,13 @@ abstract class Statement {
 		final Token name;
 		final List<Token> params;
 		final List<Statement> body;
+		int slot = -1;
+		int slotCount = 0;
+		int callCount = 0;
+		CompiledFunction compiled = null;
+		boolean[] captureIsLocal = null;
+		int[] captureIndexes = null;
+		LazyBody lazyBody = null;
 
 		Function(Token name, List<Token> params, List<Statement> body) {
 			this.name = name;
@@ -0,0 +1,34 @@
+package com.lox;
+
+// An interned name. There is one Symbol per spelling for the life of the process, so
+// symbols compare by identity and hash by their id, which also indexes the global cells.
+// The table is shared by all threads, see Interner.
+final class Symbol {
+    private static final Interner table = new Interner();
+
+    final String name;
+    final int id;
+
+    Symbol(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    static Symbol intern(CharSequence chars, int start, int length) {
+        return table.intern(chars, start, length);
+    }
+
+    static Symbol of(String name) {
+        return table.intern(name, 0, name.length());
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -3,16 +3,27 @@ package com.lox;
 public class Token {
     final TokenType type;
     final String lexeme;
+    // Set for names, keywords and operators; scopes and globals are keyed by it.
+    final Symbol symbol;
     final Object literal;
     final int line;
 
     Token(TokenType type, String lexeme, Object literal, int line) {
         this.type = type;
         this.lexeme = lexeme;
+        this.symbol = null;
         this.literal = literal;
         this.line = line;
     }
 
+    Token(TokenType type, Symbol symbol, int line) {
+        this.type = type;
+        this.lexeme = symbol.name;
+        this.symbol = symbol;
+        this.literal = null;
+        this.line = line;
+    }
+
     public String toString() {
         return type + " " + lexeme + " " + literal;
     }
@@ -0,0 +1,179 @@
+package com.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// All tokens of an in-memory source, stored as parallel arrays of primitives instead of
+// Token objects. The Parser reads types and lines straight from the arrays, a Token is only
+// built for the tokens it keeps. Names are interned into Symbols from the source characters.
+//
+// That is six bytes a token: the type, the start offset, and the length in a byte, with the
+// few longer tokens in a map. Lines are kept per run of tokens on the same line.
+final class TokenBuffer implements TokenSource {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final byte LEFT_BRACE = (byte)TokenType.LEFT_BRACE.ordinal();
+    private static final byte RIGHT_BRACE = (byte)TokenType.RIGHT_BRACE.ordinal();
+    // Typical code has a token every four to six characters. Sizing the arrays for that
+    // up front saves growing them, and the copies that come with it, on large sources.
+    private static final int CHARACTERS_PER_TOKEN = 4;
+    private static final int CHARACTERS_PER_LINE = 32;
+    private static final int LONG = 0xff;
+
+    private final String source;
+    private byte[] types;
+    private int[] starts;
+    private byte[] lengths;
+    // Lengths of LONG characters or more, by token index.
+    private Map<Integer, Integer> longLengths;
+    // The token at runStarts[i] and the ones after it, up to the next run, are on runLines[i].
+    private int[] runStarts;
+    private int[] runLines;
+    private int runCount = 0;
+    private int count = 0;
+    // Index of the current token.
+    private int current = -1;
+
+    TokenBuffer(String source) {
+        this.source = source;
+        int capacity = source.length() / CHARACTERS_PER_TOKEN + 16;
+        types = new byte[capacity];
+        starts = new int[capacity];
+        lengths = new byte[capacity];
+        longLengths = new HashMap<>();
+        int runCapacity = source.length() / CHARACTERS_PER_LINE + 16;
+        runStarts = new int[runCapacity];
+        runLines = new int[runCapacity];
+    }
+
+    // A separate cursor over the tokens of buffer.
+    private TokenBuffer(TokenBuffer buffer, int current) {
+        this.source = buffer.source;
+        this.types = buffer.types;
+        this.starts = buffer.starts;
+        this.lengths = buffer.lengths;
+        this.longLengths = buffer.longLengths;
+        this.runStarts = buffer.runStarts;
+        this.runLines = buffer.runLines;
+        this.runCount = buffer.runCount;
+        this.count = buffer.count;
+        this.current = current;
+    }
+
+    void add(TokenType type, int start, int length, int line) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        types[count] = (byte)type.ordinal();
+        starts[count] = start;
+        if (length < LONG) {
+            lengths[count] = (byte)length;
+        } else {
+            lengths[count] = (byte)LONG;
+            longLengths.put(count, length);
+        }
+        if (runCount == 0 || runLines[runCount - 1] != line) {
+            if (runCount == runStarts.length) {
+                runStarts = Arrays.copyOf(runStarts, runCount * 2);
+                runLines = Arrays.copyOf(runLines, runCount * 2);
+            }
+            runStarts[runCount] = count;
+            runLines[runCount] = line;
+            runCount++;
+        }
+        count++;
+    }
+
+    private int length(int index) {
+        int length = lengths[index] & 0xff;
+        return length == LONG ? longLengths.get(index) : length;
+    }
+
+    private int line(int index) {
+        int run = Arrays.binarySearch(runStarts, 0, runCount, index);
+        return runLines[run >= 0 ? run : -run - 2];
+    }
+
+    int size() {
+        return count;
+    }
+
+    Token token(int index) {
+        TokenType type = TYPES[types[index]];
+        int start = starts[index];
+        int length = length(index);
+        switch (type) {
+            case STRING:
+            case NUMBER:
+                return new Token(type, source.substring(start, start + length), literal(index), line(index));
+            default:
+                return new Token(type, Symbol.intern(source, start, length), line(index));
+        }
+    }
+
+    private Object literal(int index) {
+        int start = starts[index];
+        int end = start + length(index);
+        if (types[index] == TokenType.STRING.ordinal()) return source.substring(start + 1, end - 1);
+        return Double.parseDouble(source.substring(start, end));
+    }
+
+    @Override
+    public void next() {
+        if (current < count - 1) current++;
+    }
+
+    @Override
+    public TokenType type() {
+        return TYPES[types[current]];
+    }
+
+    @Override
+    public int line() {
+        return line(current);
+    }
+
+    @Override
+    public Token current() {
+        return token(current);
+    }
+
+    @Override
+    public Token previous() {
+        return token(current - 1);
+    }
+
+    @Override
+    public Object previousLiteral() {
+        return literal(current - 1);
+    }
+
+    // Index of the current token.
+    int position() {
+        return current;
+    }
+
+    // Makes the token at index the current one.
+    void seek(int index) {
+        current = index;
+    }
+
+    // Index of the '}' closing the block whose first token is at index, or of EOF if the
+    // block is never closed. Only the type array is looked at, no Token is built.
+    int closingBrace(int index) {
+        int depth = 1;
+        for (int i = index; i < count - 1; i++) {
+            if (types[i] == LEFT_BRACE) depth++;
+            if (types[i] == RIGHT_BRACE && --depth == 0) return i;
+        }
+        return count - 1;
+    }
+
+    // A separate cursor over the same tokens, its first next() moves to the one at index.
+    TokenSource from(int index) {
+        return new TokenBuffer(this, index - 1);
+    }
+}
@@ -0,0 +1,22 @@
+package com.lox;
+
+// Where the Parser gets its tokens from. It moves through them one at a time looking at the
+// type of the current token, and only asks for a Token when it keeps one in the syntax tree
+// or reports an error at it.
+interface TokenSource {
+    // Moves to the next token, the first one on the first call. Stays at EOF once the
+    // input is exhausted.
+    void next();
+
+    TokenType type();
+
+    int line();
+
+    // The current token and the one before it. A TokenBuffer builds a new Token on each call.
+    Token current();
+
+    Token previous();
+
+    // The value of the previous token, a NUMBER or a STRING.
+    Object previousLiteral();
+}
@@ -0,0 +1,84 @@
+package com.lox;
+
+// The behaviour of a Unary node, rewritten in place the same way as BinaryOperation.
+abstract class UnaryOperation {
+    static final UnaryOperation UNINITIALIZED = new Uninitialized();
+
+    abstract Object execute(Expression.Unary node, Object right);
+
+    Object evaluate(Interpreter interpreter, Expression.Unary node) {
+        return execute(node, interpreter.evaluate(node.right));
+    }
+
+    double evaluateDouble(Interpreter interpreter, Expression.Unary node) {
+        return BinaryOperation.expectDouble(evaluate(interpreter, node));
+    }
+
+    static UnaryOperation specialize(TokenType operator, Object right) {
+        if (operator == TokenType.BANG) return NOT;
+        if (operator == TokenType.MINUS && right instanceof Double) return DOUBLE_NEGATE;
+        return GENERIC;
+    }
+
+    static Object deoptimize(Expression.Unary node, Object right) {
+        node.operation = GENERIC;
+        return GENERIC.execute(node, right);
+    }
+
+    private static class Uninitialized extends UnaryOperation {
+        @Override
+        Object execute(Expression.Unary node, Object right) {
+            UnaryOperation operation = specialize(node.operator.type, right);
+            node.operation = operation;
+            return operation.execute(node, right);
+        }
+    }
+
+    static final UnaryOperation DOUBLE_NEGATE = new UnaryOperation() {
+        @Override
+        Object execute(Expression.Unary node, Object right) {
+            if (right instanceof Double) return -(Double)right;
+            return deoptimize(node, right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expression.Unary node) {
+            try {
+                return -interpreter.evaluateDouble(node.right);
+            } catch (UnexpectedResult unexpected) {
+                return deoptimize(node, unexpected.value);
+            }
+        }
+
+        @Override
+        double evaluateDouble(Interpreter interpreter, Expression.Unary node) {
+            try {
+                return -interpreter.evaluateDouble(node.right);
+            } catch (UnexpectedResult unexpected) {
+                return BinaryOperation.expectDouble(deoptimize(node, unexpected.value));
+            }
+        }
+    };
+
+    static final UnaryOperation NOT = new UnaryOperation() {
+        @Override
+        Object execute(Expression.Unary node, Object right) {
+            return !Interpreter.isTrue(right);
+        }
+    };
+
+    static final UnaryOperation GENERIC = new UnaryOperation() {
+        @Override
+        Object execute(Expression.Unary node, Object right) {
+            switch (node.operator.type) {
+                case MINUS:
+                    Interpreter.checkNumberOperand(node.operator, right);
+                    return -(Double)right;
+                case BANG:
+                    return !Interpreter.isTrue(right);
+                default:
+            }
+            return null;
+        }
+    };
+}
@@ -0,0 +1,13 @@
+package com.lox;
+
+// Thrown by Interpreter.evaluateDouble when an expression speculated to be numeric
+// produces something else. Carries the already computed value so the caller can
+// continue on the boxed path without evaluating anything twice.
+public class UnexpectedResult extends RuntimeException {
+    final Object value;
+
+    UnexpectedResult(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
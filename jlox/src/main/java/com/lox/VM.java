@@ -0,0 +1,354 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Stack-based virtual machine running the bytecode produced by Compiler.
+public class VM {
+    private static final int FRAMES_MAX = 65536;
+
+    private static class CallFrame {
+        VmClosure closure;
+        int ip;
+        int base;
+    }
+
+    private final Map<String, Object> globals = new HashMap<>();
+    private Object[] stack = new Object[256];
+    private int stackTop = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private VmUpvalue openUpvalues = null;
+
+    VM() {
+        globals.put("clock", new LoxCallable() {
+            @Override
+            public int arity() { return 0; }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return (double)System.currentTimeMillis() / 1000.0;
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+    }
+
+    public void interpret(List<Statement> statements) {
+        VmFunction script = new Compiler().compile(statements);
+        if (script == null) return;
+
+        try {
+            VmClosure closure = new VmClosure(script);
+            push(closure);
+            callClosure(closure, 0, 0);
+            run();
+        } catch (RuntimeError err) {
+            Lox.runtimeError(err);
+        } finally {
+            Arrays.fill(stack, 0, stackTop, null);
+            stackTop = 0;
+            frameCount = 0;
+            openUpvalues = null;
+        }
+    }
+
+    private void push(Object value) {
+        if (stackTop == stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+        stack[stackTop++] = value;
+    }
+
+    private RuntimeError error(CallFrame frame, String message) {
+        int line = frame.closure.function.chunk.getLine(frame.ip - 1);
+        return new RuntimeError(new Token(TokenType.EOF, "", null, line), message);
+    }
+
+    private void callClosure(VmClosure closure, int argCount, int line) {
+        if (frameCount == FRAMES_MAX) {
+            throw new RuntimeError(new Token(TokenType.EOF, "", null, line), "Stack overflow.");
+        }
+        if (frameCount == frames.length) frames = Arrays.copyOf(frames, frameCount * 2);
+        CallFrame frame = frames[frameCount];
+        if (frame == null) frame = frames[frameCount] = new CallFrame();
+        frameCount++;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = stackTop - argCount - 1;
+    }
+
+    private VmUpvalue captureUpvalue(int slot) {
+        VmUpvalue previous = null;
+        VmUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        VmUpvalue created = new VmUpvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            VmUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.open = false;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private Object readUpvalue(VmUpvalue upvalue) {
+        return upvalue.open ? stack[upvalue.slot] : upvalue.closed;
+    }
+
+    private void writeUpvalue(VmUpvalue upvalue, Object value) {
+        if (upvalue.open) {
+            stack[upvalue.slot] = value;
+        } else {
+            upvalue.closed = value;
+        }
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        while (true) {
+            byte instruction = code[ip++];
+            switch (instruction) {
+                case OpCode.CONSTANT: {
+                    push(constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]);
+                    ip += 2;
+                    break;
+                }
+                case OpCode.NIL: push(null); break;
+                case OpCode.TRUE: push(true); break;
+                case OpCode.FALSE: push(false); break;
+                case OpCode.POP: stack[--stackTop] = null; break;
+                case OpCode.GET_LOCAL: push(stack[base + (code[ip++] & 0xff)]); break;
+                case OpCode.SET_LOCAL: stack[base + (code[ip++] & 0xff)] = stack[stackTop - 1]; break;
+                case OpCode.GET_GLOBAL: {
+                    String name = (String)constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    Object value = globals.get(name);
+                    if (value == null && !globals.containsKey(name)) {
+                        frame.ip = ip;
+                        throw error(frame, "Undefined variable '" + name + "'.");
+                    }
+                    push(value);
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    String name = (String)constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    globals.put(name, stack[--stackTop]);
+                    stack[stackTop] = null;
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    String name = (String)constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!globals.containsKey(name)) {
+                        frame.ip = ip;
+                        throw error(frame, "Undefined variable '" + name + "'.");
+                    }
+                    globals.put(name, stack[stackTop - 1]);
+                    break;
+                }
+                case OpCode.GET_UPVALUE:
+                    push(readUpvalue(frame.closure.upvalues[code[ip++] & 0xff]));
+                    break;
+                case OpCode.SET_UPVALUE:
+                    writeUpvalue(frame.closure.upvalues[code[ip++] & 0xff], stack[stackTop - 1]);
+                    break;
+                case OpCode.EQUAL: {
+                    Object right = stack[--stackTop];
+                    stack[stackTop - 1] = Interpreter.isEqual(stack[stackTop - 1], right);
+                    stack[stackTop] = null;
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object right = stack[--stackTop];
+                    stack[stackTop - 1] = !Interpreter.isEqual(stack[stackTop - 1], right);
+                    stack[stackTop] = null;
+                    break;
+                }
+                case OpCode.GREATER:
+                case OpCode.GREATER_EQUAL:
+                case OpCode.LESS:
+                case OpCode.LESS_EQUAL:
+                case OpCode.SUBTRACT:
+                case OpCode.MULTIPLY:
+                case OpCode.DIVIDE: {
+                    Object left = stack[stackTop - 2];
+                    Object right = stack[stackTop - 1];
+                    if (!(left instanceof Double) || !(right instanceof Double)) {
+                        frame.ip = ip;
+                        throw error(frame, "Operands must be a numbers");
+                    }
+                    double a = (Double)left;
+                    double b = (Double)right;
+                    Object result;
+                    switch (instruction) {
+                        case OpCode.GREATER: result = a > b; break;
+                        case OpCode.GREATER_EQUAL: result = a >= b; break;
+                        case OpCode.LESS: result = a < b; break;
+                        case OpCode.LESS_EQUAL: result = a <= b; break;
+                        case OpCode.SUBTRACT: result = a - b; break;
+                        case OpCode.MULTIPLY: result = a * b; break;
+                        default:
+                            if (b == 0) {
+                                frame.ip = ip;
+                                throw error(frame, "Division by zero detected.");
+                            }
+                            result = a / b;
+                    }
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = result;
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object left = stack[stackTop - 2];
+                    Object right = stack[stackTop - 1];
+                    Object result;
+                    if (left instanceof Double && right instanceof Double) {
+                        result = (Double)left + (Double)right;
+                    } else if (left instanceof CharSequence || right instanceof CharSequence) {
+                        result = Rope.concat(Rope.text(left), Rope.text(right));
+                    } else {
+                        frame.ip = ip;
+                        throw error(frame, "Operands must be two numbers or two strings.");
+                    }
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = result;
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[stackTop - 1] = !Interpreter.isTrue(stack[stackTop - 1]);
+                    break;
+                case OpCode.NEGATE: {
+                    Object operand = stack[stackTop - 1];
+                    if (!(operand instanceof Double)) {
+                        frame.ip = ip;
+                        throw error(frame, "Operand must be a number");
+                    }
+                    stack[stackTop - 1] = -(Double)operand;
+                    break;
+                }
+                case OpCode.PRINT:
+                    System.out.println(Interpreter.stringify(stack[--stackTop]));
+                    stack[stackTop] = null;
+                    break;
+                case OpCode.JUMP: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 + offset;
+                    break;
+                }
+                case OpCode.JUMP_IF_FALSE: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if (!Interpreter.isTrue(stack[stackTop - 1])) ip += offset;
+                    break;
+                }
+                case OpCode.LOOP: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 - offset;
+                    break;
+                }
+                case OpCode.CALL:
+                case OpCode.TAIL_CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    Object callee = stack[stackTop - argCount - 1];
+                    if (callee instanceof VmClosure) {
+                        VmClosure closure = (VmClosure)callee;
+                        if (argCount != closure.function.arity) {
+                            throw error(frame, "Expected " + closure.function.arity + " arguments but got " + argCount + ".");
+                        }
+                        if (instruction == OpCode.TAIL_CALL) {
+                            // The callee takes over the caller's frame, like the Interpreter's trampoline.
+                            closeUpvalues(base);
+                            int from = stackTop - argCount - 1;
+                            System.arraycopy(stack, from, stack, base, argCount + 1);
+                            Arrays.fill(stack, base + argCount + 1, stackTop, null);
+                            stackTop = base + argCount + 1;
+                            frame.closure = closure;
+                        } else {
+                            callClosure(closure, argCount, frame.closure.function.chunk.getLine(ip - 1));
+                            frame = frames[frameCount - 1];
+                        }
+                        code = closure.function.chunk.code;
+                        constants = closure.function.chunk.constants;
+                        ip = 0;
+                        base = frame.base;
+                    } else if (callee instanceof LoxCallable) {
+                        LoxCallable function = (LoxCallable)callee;
+                        if (argCount != function.arity()) {
+                            throw error(frame, "Expected " + function.arity() + " arguments but got " + argCount + ".");
+                        }
+                        List<Object> arguments = new ArrayList<>(argCount);
+                        for (int i = stackTop - argCount; i < stackTop; i++) {
+                            arguments.add(stack[i]);
+                        }
+                        Object result = function.call(null, arguments);
+                        Arrays.fill(stack, stackTop - argCount, stackTop, null);
+                        stackTop -= argCount;
+                        stack[stackTop - 1] = result;
+                    } else {
+                        throw error(frame, "Can only call function and classes.");
+                    }
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    VmFunction function = (VmFunction)constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmClosure closure = new VmClosure(function);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        closure.upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+                    }
+                    push(closure);
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(stackTop - 1);
+                    stack[--stackTop] = null;
+                    break;
+                case OpCode.RETURN: {
+                    Object result = stack[--stackTop];
+                    closeUpvalues(base);
+                    Arrays.fill(stack, base, stackTop, null);
+                    stackTop = base;
+                    frame.closure = null;
+                    frameCount--;
+                    if (frameCount == 0) return;
+
+                    push(result);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                default:
+                    frame.ip = ip;
+                    throw error(frame, "Unknown opcode " + instruction + ".");
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.lox;
+
+public class VmUpvalue {
+    // While open the value lives in the VM stack at `slot`; once the slot goes out of scope it is copied into `closed`.
+    int slot;
+    Object closed;
+    boolean open = true;
+    VmUpvalue next;
+
+    VmUpvalue(int slot, VmUpvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
@@ -12,33 +12,34 @@ public class GenerateAst {
             System.exit(64);
         }
         String outputDir = args[0];
-        defineAst(outputDir, "Expression", Arrays.asList(
-            "Assign : Token name, Expression value",
-            "Binary : Expression left, Token operator, Expression right",
+        defineAst(outputDir, "Expression", null, Arrays.asList(
+            "Assign : Token name, Expression value | boolean isGlobal = true, int slot = -1, int capture = -1, GlobalCell cell = null",
+            "Binary : Expression left, Token operator, Expression right | BinaryOperation operation = BinaryOperation.UNINITIALIZED",
             "Ternary : Expression left, Token operator1, Expression middle, Token operator2, Expression right",
             "Grouping : Expression expression",
             "Literal : Object value",
-            "Unary : Token operator, Expression right",
-            "Variable : Token name",
+            "Unary : Token operator, Expression right | UnaryOperation operation = UnaryOperation.UNINITIALIZED",
+            "Variable : Token name | boolean isGlobal = true, int slot = -1, int capture = -1, GlobalCell cell = null",
             "Logical : Expression left, Token operator, Expression right",
-            "Call : Expression callee, Token paren, List<Expression> arguments",
+            "Call : Expression callee, Token paren, List<Expression> arguments | boolean isTailCall = false",
             "Function : Statement.Function function"
         ));
 
-        defineAst(outputDir, "Statement", Arrays.asList(
+        defineAst(outputDir, "Statement", "int line = 0", Arrays.asList(
             "ExpressionStm : Expression expression",
             "Print : Expression expression",
-            "Var : Token name, Expression initializer",
-            "Block : List<Statement> statements",
+            "Var : Token name, Expression initializer | int slot = -1",
+            "Block : List<Statement> statements | int slotCount = 0",
             "If : Expression condition, Statement thenBranch, Statement elseBranch",
             "While : Expression condition, Statement body",
             "Break : Token keyword",
-            "Function : Token name, List<Token> params, List<Statement> body",
+            "Function : Token name, List<Token> params, List<Statement> body | int slot = -1, int slotCount = 0, int callCount = 0, CompiledFunction compiled = null, boolean[] captureIsLocal = null, int[] captureIndexes = null, LazyBody lazyBody = null",
             "Return : Token keyword, Expression value"
         ));
     }
 
-    private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
+    // baseFields, if any, are common to every node type and filled in after construction, like the fields after '|'.
+    private static void defineAst(String outputDir, String baseName, String baseFields, List<String> types) throws IOException {
         String path = outputDir + "/" + baseName + ".java";
         PrintWriter writer = new PrintWriter(path, "UTF-8");
 
@@ -47,15 +48,24 @@ public class GenerateAst {
         writer.println("import java.util.List;");
         writer.println();
         writer.println("abstract class " + baseName + " {");
-        
+        if (baseFields != null) {
+            for (String field : baseFields.split(", ")) {
+                writer.println("\t" + field + ";");
+            }
+            writer.println();
+        }
+
         defineVisitor(writer, baseName, types);
 
         writer.println();
 
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            // Fields after '|' are filled in after parsing, by the Resolver or the Interpreter.
+            String[] fieldGroups = type.split(":")[1].split("\\|");
+            String fields = fieldGroups[0].trim();
+            String resolvedFields = fieldGroups.length > 1 ? fieldGroups[1].trim() : null;
+            defineType(writer, baseName, className, fields, resolvedFields);
         }
 
         writer.println();
@@ -76,7 +86,7 @@ public class GenerateAst {
         writer.println("\t}");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fields) {
+    private static void defineType(PrintWriter writer, String baseName, String className, String fields, String resolvedFields) {
         writer.println("\tstatic class " + className + " extends " + baseName + " {");
 
         // fields
@@ -84,6 +94,11 @@ public class GenerateAst {
         for (String field : fieldList) {
             writer.println("\t\tfinal " + field + ";");
         }
+        if (resolvedFields != null) {
+            for (String field : resolvedFields.split(", ")) {
+                writer.println("\t\t" + field + ";");
+            }
+        }
         writer.println();
 
         // constructor
@@ -0,0 +1,116 @@
+package com.lox;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// A bad cache entry is a miss: the script is parsed again instead of the run failing.
+// Entries are keyed by every class of the build, so a changed Parser misses too.
+class AstCacheTest {
+    private static final byte[] SOURCE =
+        "fun add(a, b) { return a + b; }\nvar total = add(1, 2);\nprint total;\n".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void storedEntryLoads() throws IOException {
+        AstCache cache = store();
+        List<Statement> statements = cache.load(SOURCE);
+        assertNotNull(statements);
+        assertEquals(3, statements.size());
+    }
+
+    @Test
+    void hugeLengthIsAMiss() throws IOException {
+        AstCache cache = store();
+        // The count of top-level statements, claiming far more than the file holds.
+        Files.write(entry(), ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE - 8).array());
+        assertNull(cache.load(SOURCE));
+    }
+
+    @Test
+    void truncatedEntryIsAMiss() throws IOException {
+        AstCache cache = store();
+        byte[] bytes = Files.readAllBytes(entry());
+        Files.write(entry(), Arrays.copyOf(bytes, bytes.length / 2));
+        assertNull(cache.load(SOURCE));
+    }
+
+    @Test
+    void deeplyNestedEntryIsAMiss() throws IOException {
+        AstCache cache = store();
+        // One expression statement whose expression is a grouping of a grouping of ...
+        ByteBuffer bytes = ByteBuffer.allocate(1 << 20);
+        bytes.putInt(1).put((byte)AstWriter.EXPRESSION_STATEMENT).putInt(1);
+        while (bytes.hasRemaining()) bytes.put((byte)AstWriter.GROUPING);
+        Files.write(entry(), bytes.array());
+        assertNull(cache.load(SOURCE));
+    }
+
+    @Test
+    void lengthsAreCheckedBeforeAllocating() {
+        byte[] bytes = ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE).array();
+        assertThrows(IOException.class, () -> new AstReader(bytes).read());
+    }
+
+    @Test
+    void writerOutputReadsBack() throws IOException {
+        List<Statement> statements = compile();
+        byte[] written = new AstWriter().write(statements);
+        assertArrayEquals(written, new AstWriter().write(new AstReader(written).read()));
+    }
+
+    @Test
+    void anyChangedClassChangesTheBuild() throws IOException {
+        Path classes = Files.createDirectories(directory.resolve("classes/com/lox"));
+        Files.write(classes.resolve("Parser.class"), new byte[] {1});
+        Files.write(classes.resolve("Statement.class"), new byte[] {2});
+        byte[] build = AstCache.fingerprint(directory.resolve("classes"));
+        assertArrayEquals(build, AstCache.fingerprint(directory.resolve("classes")));
+
+        Files.write(classes.resolve("Parser.class"), new byte[] {3});
+        assertFalse(Arrays.equals(build, AstCache.fingerprint(directory.resolve("classes"))));
+    }
+
+    @Test
+    void jarIsHashedWhole() throws IOException {
+        Path jar = directory.resolve("jlox.jar");
+        Files.write(jar, new byte[] {1, 2});
+        byte[] build = AstCache.fingerprint(jar);
+        Files.write(jar, new byte[] {1, 3});
+        assertFalse(Arrays.equals(build, AstCache.fingerprint(jar)));
+    }
+
+    private AstCache store() throws IOException {
+        AstCache cache = new AstCache(directory);
+        cache.store(SOURCE, compile());
+        assertNotNull(entry());
+        return cache;
+    }
+
+    private Path entry() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".ast")).findFirst().orElse(null);
+        }
+    }
+
+    private static List<Statement> compile() {
+        return Programs.compile(new String(SOURCE, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,76 @@
+package com.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+// Every program prints the same, and fails with the same runtime error, on the
+// Interpreter, on the VM and with every function compiled by the JIT from its first call.
+class EngineParityTest {
+    private static final Path CORPUS = Paths.get("src/test/resources/programs");
+    private static final Path MAIN = Paths.get("../main.lx");
+
+    private boolean jit;
+    private int threshold;
+
+    @BeforeEach
+    void save() {
+        jit = JitCompiler.enabled;
+        threshold = JitCompiler.threshold;
+    }
+
+    @AfterEach
+    void restore() {
+        JitCompiler.enabled = jit;
+        JitCompiler.threshold = threshold;
+    }
+
+    static List<Path> programs() throws IOException {
+        try (Stream<Path> files = Files.list(CORPUS)) {
+            List<Path> programs = files.filter(file -> file.toString().endsWith(".lx")).sorted()
+                    .collect(Collectors.toList());
+            programs.add(0, MAIN);
+            return programs;
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("programs")
+    void enginesAgree(Path program) throws IOException {
+        String source = new String(Files.readAllBytes(program), StandardCharsets.UTF_8);
+
+        // Each engine gets its own tree, the JIT keeps its state on the declarations.
+        JitCompiler.enabled = false;
+        Programs.Output interpreted = Programs.run(Programs.compile(source));
+
+        List<Statement> statements = Programs.compile(source);
+        Programs.Output vm = Programs.capture(() -> new VM().interpret(statements));
+
+        JitCompiler.enabled = true;
+        JitCompiler.threshold = 1;
+        Programs.Output compiled = Programs.run(Programs.compile(source));
+
+        assertFalse(interpreted.toString().isEmpty(), "the program prints nothing");
+        assertOutput(interpreted, vm, "VM");
+        assertOutput(interpreted, compiled, "JIT");
+    }
+
+    private static void assertOutput(Programs.Output expected, Programs.Output actual, String engine) {
+        assertEquals(expected.out, actual.out, engine + " stdout");
+        assertEquals(expected.err, actual.err, engine + " stderr");
+        assertEquals(expected.runtimeError, actual.runtimeError, engine + " runtime error");
+    }
+}
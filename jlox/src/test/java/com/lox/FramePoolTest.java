@@ -0,0 +1,41 @@
+package com.lox;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// Calls reuse the frames on the Interpreter's frame stack instead of allocating an
+// Environment and its slots each time.
+class FramePoolTest {
+    private static final int CALLS = 100_000;
+
+    // What is left per call is the boxed loop counter, an Environment with its slots would
+    // add at least another 48 bytes.
+    private static final double MAX_BYTES_PER_CALL = 40;
+
+    private static final String PROGRAM =
+        "fun pass(a, b, c) { var d = b; if (c == nil) return d; return a; }\n" +
+        "var x = \"x\";\n" +
+        "for (var i = 0; i < " + CALLS + "; i = i + 1) pass(x, x, x);\n";
+
+    @Test
+    void callsDontAllocateFrames() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        List<Statement> statements = Programs.compile(PROGRAM);
+        Interpreter interpreter = new Interpreter();
+
+        // The first run loads classes and compiles the function, neither of which is per call.
+        interpreter.interpret(statements);
+        long before = threads.getCurrentThreadAllocatedBytes();
+        interpreter.interpret(statements);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertFalse(Lox.hadRuntimeError);
+        double perCall = (double)allocated / CALLS;
+        assertTrue(perCall < MAX_BYTES_PER_CALL, "allocated " + perCall + " bytes per call");
+    }
+}
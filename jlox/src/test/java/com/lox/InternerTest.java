@@ -0,0 +1,59 @@
+package com.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+// Parsers on different threads share the interner and must get the same Symbol per name.
+class InternerTest {
+    private static final int THREADS = 4;
+    // Enough names to grow the table several times while the threads race.
+    private static final int NAMES = 16_384;
+
+    @Test
+    void threadsGetOneSymbolPerName() throws Exception {
+        Interner interner = new Interner();
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Symbol[]>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int offset = t;
+                Callable<Symbol[]> task = () -> {
+                    start.await();
+                    Symbol[] symbols = new Symbol[NAMES];
+                    // Each thread visits the names in its own order; an odd stride over a power of two reaches every name once.
+                    for (int i = 0; i < NAMES; i++) {
+                        int name = (i * (2 * offset + 1)) % NAMES;
+                        String text = "name" + name;
+                        symbols[name] = interner.intern(text, 0, text.length());
+                    }
+                    return symbols;
+                };
+                results.add(executor.submit(task));
+            }
+
+            Symbol[] first = results.get(0).get();
+            for (Future<Symbol[]> result : results) {
+                Symbol[] symbols = result.get();
+                for (int i = 0; i < NAMES; i++) assertSame(first[i], symbols[i], "name" + i);
+            }
+            Set<Integer> ids = new HashSet<>();
+            for (Symbol symbol : first) ids.add(symbol.id);
+            assertEquals(NAMES, ids.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// A body parsed on its first call that doesn't compile stops the script with a runtime
+// error, and leaves the Interpreter's frame stack as it found it.
+class LazyBodyTest {
+    @Test
+    void resolveErrorInTailCall() {
+        assertCompileError(
+            "fun broken(n) { var unused = 1; return n; }\n" +
+            "fun caller(n) { return broken(n); }\n" +
+            "print caller(1);\n");
+    }
+
+    @Test
+    void parseErrorInTailCall() {
+        assertCompileError(
+            "fun broken(n) { return n +; }\n" +
+            "fun caller(n) { return broken(n); }\n" +
+            "print caller(1);\n");
+    }
+
+    @Test
+    void parseErrorInCall() {
+        assertCompileError(
+            "fun broken(n) { return n +; }\n" +
+            "print broken(1);\n");
+    }
+
+    // The bodies are only parsed when called, so the script itself compiles.
+    private static void assertCompileError(String source) {
+        List<Statement> statements = Programs.compile(source, true);
+        Interpreter interpreter = new Interpreter();
+        Programs.Output output = Programs.run(interpreter, statements);
+        assertTrue(output.runtimeError);
+        assertTrue(output.err.contains("Could not compile 'broken'."), output.err);
+        assertEquals(0, interpreter.frameCount);
+    }
+}
@@ -0,0 +1,72 @@
+package com.lox;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Compiles and runs Lox source for the tests, the way Lox does for a script.
+final class Programs {
+    private Programs() {}
+
+    // What a run printed, and whether it ended in a runtime error.
+    static final class Output {
+        final String out;
+        final String err;
+        final boolean runtimeError;
+
+        Output(String out, String err, boolean runtimeError) {
+            this.out = out;
+            this.err = err;
+            this.runtimeError = runtimeError;
+        }
+
+        @Override
+        public String toString() {
+            return out + err;
+        }
+    }
+
+    // Parsed and resolved. Fails the test if the source has compile errors.
+    static List<Statement> compile(String source) {
+        return compile(source, false);
+    }
+
+    static List<Statement> compile(String source, boolean lazy) {
+        Lox.hadError = false;
+        Lox.hadRuntimeError = false;
+        List<Statement> statements = new Parser(Scanner.scan(source), lazy).parse();
+        if (!Lox.hadError) new Resolver().resolve(statements);
+        assertFalse(Lox.hadError, "the program doesn't compile");
+        return statements;
+    }
+
+    static Output run(List<Statement> statements) {
+        return run(new Interpreter(), statements);
+    }
+
+    static Output run(Interpreter interpreter, List<Statement> statements) {
+        return capture(() -> interpreter.interpret(statements));
+    }
+
+    // Runs program with System.out and System.err redirected.
+    static Output capture(Runnable program) {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        Lox.hadRuntimeError = false;
+        try {
+            System.setOut(new PrintStream(outBytes, true, StandardCharsets.UTF_8));
+            System.setErr(new PrintStream(errBytes, true, StandardCharsets.UTF_8));
+            program.run();
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+        return new Output(outBytes.toString(StandardCharsets.UTF_8), errBytes.toString(StandardCharsets.UTF_8),
+                Lox.hadRuntimeError);
+    }
+}
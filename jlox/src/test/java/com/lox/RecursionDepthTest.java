@@ -0,0 +1,57 @@
+package com.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// Non-tail recursion runs on the Java stack. It gets at least as deep as it did before
+// calls went through the frame pool and the trampoline, and going deeper than the stack
+// allows is a Lox runtime error.
+class RecursionDepthTest {
+    // The JVM's default thread stack on 64-bit Linux, the one a script runs on.
+    private static final long STACK_SIZE = 1024 * 1024;
+    // About how deep this function recursed on that stack before the call path was reworked.
+    private static final int BASELINE_DEPTH = 692;
+
+    private static final String RECURSE = "fun f(n) {\n  if (n == 0) return 0;\n  return 1 + f(n - 1);\n}\n";
+
+    @Test
+    void nonTailRecursionReachesBaselineDepth() throws InterruptedException {
+        Programs.Output output = runOnStack(Programs.compile(RECURSE + "print f(" + BASELINE_DEPTH + ");\n"));
+        assertFalse(output.runtimeError, output.err);
+        assertEquals(BASELINE_DEPTH + "\n", output.out);
+    }
+
+    @Test
+    void stackOverflowIsARuntimeError() throws InterruptedException {
+        Interpreter interpreter = new Interpreter();
+        Programs.Output output = runOnStack(interpreter, Programs.compile(RECURSE + "print f(1000000);\n"));
+        assertTrue(output.runtimeError);
+        assertEquals("Stack overflow.\n[line 3]\n", output.err);
+        assertEquals(0, interpreter.frameCount);
+
+        // The Interpreter is still usable, as in the REPL.
+        output = runOnStack(interpreter, Programs.compile("fun g(n) { return n + 1; }\nprint g(1);\n"));
+        assertFalse(output.runtimeError, output.err);
+        assertEquals("2\n", output.out);
+    }
+
+    private static Programs.Output runOnStack(List<Statement> statements) throws InterruptedException {
+        return runOnStack(new Interpreter(), statements);
+    }
+
+    // Runs the program on a thread of its own, so the depth doesn't depend on the test runner's stack.
+    private static Programs.Output runOnStack(Interpreter interpreter, List<Statement> statements)
+            throws InterruptedException {
+        Programs.Output[] output = new Programs.Output[1];
+        Thread thread = new Thread(null, () -> output[0] = Programs.run(interpreter, statements), "lox", STACK_SIZE);
+        thread.start();
+        thread.join();
+        assertTrue(output[0] != null, "the program threw");
+        return output[0];
+    }
+}
@@ -0,0 +1,65 @@
+package com.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Compiled functions count their statements like the Interpreter does, so the counters
+// don't depend on whether the JIT got to a function.
+class RuntimeStatsTest {
+    private static final int CALLS = 5000;
+
+    private static final String PROGRAM =
+        "fun sum(n) {\n" +
+        "    var total = 0;\n" +
+        "    var i = 0;\n" +
+        "    while (i < n) { total = total + i; i = i + 1; }\n" +
+        "    if (total > 0) return total; else return 0;\n" +
+        "}\n" +
+        "var all = 0;\n" +
+        "for (var k = 0; k < " + CALLS + "; k = k + 1) all = all + sum(3);\n";
+
+    private boolean jit;
+
+    @BeforeEach
+    void enable() {
+        jit = JitCompiler.enabled;
+        RuntimeStats.enabled = true;
+    }
+
+    @AfterEach
+    void restore() {
+        JitCompiler.enabled = jit;
+        RuntimeStats.enabled = false;
+    }
+
+    @Test
+    void compiledFunctionsCountStatements() {
+        JitCompiler.enabled = false;
+        long[] interpreted = run();
+        JitCompiler.enabled = true;
+        long[] compiled = run();
+
+        assertEquals(interpreted[0], compiled[0], "statements");
+        assertEquals(interpreted[1], compiled[1], "calls");
+        assertEquals(CALLS, compiled[1]);
+        assertTrue(compiled[0] > 10L * CALLS);
+    }
+
+    // Statements and calls counted during one run of PROGRAM on a new Interpreter.
+    private static long[] run() {
+        List<Statement> statements = Programs.compile(PROGRAM);
+        Interpreter interpreter = new Interpreter();
+        RuntimeStats stats = interpreter.stats;
+        long statementsBefore = stats.getStatementsExecuted();
+        long callsBefore = stats.getFunctionCalls();
+        assertFalse(Programs.run(interpreter, statements).runtimeError);
+        return new long[] {stats.getStatementsExecuted() - statementsBefore, stats.getFunctionCalls() - callsBefore};
+    }
+}
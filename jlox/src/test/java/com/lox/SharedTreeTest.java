@@ -0,0 +1,44 @@
+package com.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// A syntax tree run by one Interpreter caches that Interpreter's global cells. Another
+// Interpreter running the same tree still sees only its own globals.
+class SharedTreeTest {
+    private int threshold;
+
+    @BeforeEach
+    void save() {
+        threshold = JitCompiler.threshold;
+    }
+
+    @AfterEach
+    void restore() {
+        JitCompiler.threshold = threshold;
+    }
+
+    @Test
+    void interpretersKeepTheirGlobals() {
+        List<Statement> statements = Programs.compile("var a = 1;\nprint a;\na = a + 1;\nprint a;\n");
+        assertEquals("1\n2\n", Programs.run(new Interpreter(), statements).out);
+        assertEquals("1\n2\n", Programs.run(new Interpreter(), statements).out);
+    }
+
+    @Test
+    void compiledFunctionsKeepTheirGlobals() {
+        JitCompiler.threshold = 1;
+        List<Statement> statements = Programs.compile(
+            "var a = 1;\n" +
+            "fun bump() { a = a + 1; return a; }\n" +
+            "print bump();\n" +
+            "print bump();\n");
+        assertEquals("2\n3\n", Programs.run(new Interpreter(), statements).out);
+        assertEquals("2\n3\n", Programs.run(new Interpreter(), statements).out);
+    }
+}
@@ -0,0 +1,36 @@
+package com.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Test;
+
+// A TokenBuffer gives the Parser the same tokens as the streaming Scanner, including
+// tokens too long for their length byte and lines that only change between runs of tokens.
+class TokenBufferTest {
+    @Test
+    void matchesStreamingScanner() {
+        String longName = "n".repeat(300);
+        String longString = "\"" + "s".repeat(1000) + "\"";
+        String source =
+            "var " + longName + " = " + longString + ";\n" +
+            "print \"two\nlines\" + 12.5;\n" +
+            "/* a\ncomment */ fun f(a, b) { return a >= b; }\n" +
+            "\n\n" + longName + " = nil;\n";
+
+        TokenSource buffered = Scanner.scan(source);
+        TokenSource streamed = new Scanner(new StringReader(source));
+        buffered.next();
+        streamed.next();
+        while (true) {
+            assertEquals(streamed.type(), buffered.type());
+            assertEquals(streamed.line(), buffered.line());
+            assertEquals(streamed.current().toString(), buffered.current().toString());
+            if (streamed.type() == TokenType.EOF) break;
+            buffered.next();
+            streamed.next();
+            assertEquals(streamed.previous().toString(), buffered.previous().toString());
+        }
+    }
+}